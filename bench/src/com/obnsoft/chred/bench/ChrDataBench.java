@@ -0,0 +1,93 @@
+/*
+ * Copyright (C) 2013 OBN-soft
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.obnsoft.chred.bench;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import com.obnsoft.chred.ChrData;
+import com.obnsoft.chred.ColData;
+import com.obnsoft.chred.PTCFile;
+
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+public class ChrDataBench {
+
+    private static final int BANK_COLUMNS = 16;
+    private static final int BANK_SIZE = BANK_COLUMNS * ChrData.UNIT_SIZE;
+
+    @Param({"spu0.ptc", "bgf0.ptc"})
+    public String fileName;
+
+    private byte[] mChrBytes;
+    private ChrData mChrData;
+    private int[] mPixels = new int[BANK_SIZE * BANK_SIZE];
+
+    @Setup
+    public void setup() throws IOException {
+        mChrBytes = loadData(fileName);
+        ColData colData = new ColData();
+        colData.deserialize(loadData("palette.ptc"));
+        mChrData = new ChrData();
+        mChrData.setColData(colData);
+        mChrData.setTargetSize(1, 1);
+        mChrData.deserialize(mChrBytes);
+    }
+
+    @Benchmark
+    public byte[] serialize() {
+        return mChrData.serialize();
+    }
+
+    @Benchmark
+    public ChrData deserialize() {
+        ChrData chrData = new ChrData();
+        chrData.deserialize(mChrBytes);
+        return chrData;
+    }
+
+    @Benchmark
+    public int[] rasterizeBank() {
+        for (int i = 0; i < ChrData.MAX_CHARS; i++) {
+            mChrData.drawTarget(mPixels, BANK_SIZE, i, 0,
+                    i % BANK_COLUMNS * ChrData.UNIT_SIZE, i / BANK_COLUMNS * ChrData.UNIT_SIZE);
+        }
+        return mPixels;
+    }
+
+    /*-----------------------------------------------------------------------*/
+
+    private static byte[] loadData(String fileName) throws IOException {
+        PTCFile ptcFile = new PTCFile();
+        if (!ptcFile.load(new ByteArrayInputStream(BenchAssets.read(fileName)))) {
+            throw new IOException("Can't load " + fileName);
+        }
+        return ptcFile.getData();
+    }
+
+}
@@ -0,0 +1,84 @@
+/*
+ * Copyright (C) 2013 OBN-soft
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.obnsoft.chred.bench;
+
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import com.obnsoft.chred.PTCUtils;
+
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+public class DigestBench {
+
+    private static final byte[] MD5EXTRA = {'P', 'E', 'T', 'I', 'T', 'C', 'O', 'M'};
+
+    /*  Size of a QR chunk, a CHR file and a compressed GRP  */
+    @Param({"630", "8220", "65536"})
+    public int size;
+
+    private byte[] mData;
+
+    @Setup
+    public void setup() {
+        mData = new byte[size];
+        new Random(1).nextBytes(mData);
+    }
+
+    /*  What Utils.getMD5() and getPetitcomMD5() used to do  */
+
+    @Benchmark
+    public byte[] lookupEachTime() throws NoSuchAlgorithmException {
+        return MessageDigest.getInstance("MD5").digest(mData);
+    }
+
+    @Benchmark
+    public byte[] lookupAndConcat() throws NoSuchAlgorithmException {
+        byte[] work = new byte[MD5EXTRA.length + mData.length];
+        System.arraycopy(MD5EXTRA, 0, work, 0, MD5EXTRA.length);
+        System.arraycopy(mData, 0, work, MD5EXTRA.length, mData.length);
+        return MessageDigest.getInstance("MD5").digest(work);
+    }
+
+    /*  Thread-local digest  */
+
+    @Benchmark
+    public byte[] threadLocal() {
+        return PTCUtils.getMD5(mData);
+    }
+
+    @Benchmark
+    public byte[] threadLocalUpdate() {
+        MessageDigest digest = PTCUtils.getMD5Digest();
+        digest.update(MD5EXTRA);
+        digest.update(mData);
+        return digest.digest();
+    }
+
+}
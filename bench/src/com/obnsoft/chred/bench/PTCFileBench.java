@@ -0,0 +1,83 @@
+/*
+ * Copyright (C) 2013 OBN-soft
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.obnsoft.chred.bench;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import com.obnsoft.chred.PTCFile;
+
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+public class PTCFileBench {
+
+    @Param({"spu0.ptc", "spu1.ptc", "spu2.ptc", "spu3.ptc", "bgf0.ptc"})
+    public String fileName;
+
+    private byte[] mFileData;
+    private byte[] mCmprsData;
+    private PTCFile mPtcFile;
+
+    @Setup
+    public void setup() throws IOException {
+        mFileData = BenchAssets.read(fileName);
+        mPtcFile = new PTCFile();
+        if (!mPtcFile.load(new ByteArrayInputStream(mFileData))) {
+            throw new IOException("Can't load " + fileName);
+        }
+        mCmprsData = mPtcFile.compress();
+    }
+
+    @Benchmark
+    public PTCFile load() {
+        PTCFile ptcFile = new PTCFile();
+        ptcFile.load(new ByteArrayInputStream(mFileData));
+        return ptcFile;
+    }
+
+    @Benchmark
+    public ByteArrayOutputStream save() {
+        ByteArrayOutputStream out = new ByteArrayOutputStream(mFileData.length);
+        mPtcFile.save(out);
+        return out;
+    }
+
+    @Benchmark
+    public byte[] compress() {
+        return mPtcFile.compress();
+    }
+
+    @Benchmark
+    public PTCFile expand() {
+        PTCFile ptcFile = new PTCFile();
+        ptcFile.expand(mCmprsData);
+        return ptcFile;
+    }
+
+}
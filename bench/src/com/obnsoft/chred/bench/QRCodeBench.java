@@ -0,0 +1,71 @@
+/*
+ * Copyright (C) 2013 OBN-soft
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.obnsoft.chred.bench;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.infra.Blackhole;
+
+import com.obnsoft.chred.PTCFile;
+
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+public class QRCodeBench {
+
+    @Param({"spu0.ptc", "bgf0.ptc"})
+    public String fileName;
+
+    @Param({"false", "true"})
+    public boolean isTight;
+
+    private byte[] mCmprsData;
+    private byte[][] mQrDatas;
+
+    @Setup
+    public void setup() throws IOException {
+        PTCFile ptcFile = new PTCFile();
+        if (!ptcFile.load(new ByteArrayInputStream(BenchAssets.read(fileName)))) {
+            throw new IOException("Can't load " + fileName);
+        }
+        mCmprsData = ptcFile.compress();
+        mQrDatas = PTCFile.splitQRData(mCmprsData, isTight);
+    }
+
+    @Benchmark
+    public byte[][] splitQRData() {
+        return PTCFile.splitQRData(mCmprsData, isTight);
+    }
+
+    @Benchmark
+    public void encodeQRCodes(Blackhole bh) {
+        for (byte[] qrData : mQrDatas) {
+            bh.consume(PTCFile.encodeQRCode(qrData, isTight));
+        }
+    }
+
+}
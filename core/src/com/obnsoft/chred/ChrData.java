@@ -18,8 +18,6 @@ package com.obnsoft.chred;
 
 import java.util.Arrays;
 
-import android.graphics.Bitmap;
-
 public class ChrData {
 
     public static final int MAX_CHARS = 256;
@@ -67,16 +65,17 @@ public class ChrData {
             mDirty = true;
         }
 
-        public void drawUnit(Bitmap bmp, int pal) {
-            drawUnit(bmp, pal, 0, 0);
+        public void drawUnit(int[] pixels, int stride, int pal) {
+            drawUnit(pixels, stride, pal, 0, 0);
         }
 
-        public void drawUnit(Bitmap bmp, int pal, int x, int y) {
-            //if (pal < 0 || pal >= ColData.MAX_PALS || canvas == null || mColData == null) return;
+        public void drawUnit(int[] pixels, int stride, int pal, int x, int y) {
+            //if (pal < 0 || pal >= ColData.MAX_PALS || pixels == null || mColData == null) return;
             int idx = 0;
             for (int i = 0; i < UNIT_SIZE; i++) {
+                int offset = (y + i) * stride + x;
                 for (int j = 0; j < UNIT_SIZE; j++) {
-                    bmp.setPixel(x + j, y + i, mColData.getColor(pal, mDots[idx++]));
+                    pixels[offset + j] = mColData.getColor(pal, mDots[idx++]);
                 }
             }
         }
@@ -140,6 +139,16 @@ public class ChrData {
         mVUnits = vUnits;
     }
 
+    public ChrUnit getChrUnit(int idx) {
+        return (idx >= 0 && idx < MAX_CHARS) ? mChrs[idx] : null;
+    }
+
+    public void setChrUnit(int idx, ChrUnit unit) {
+        if (idx < 0 || idx >= MAX_CHARS) return;
+        mChrs[idx] = unit.clone();
+        mDirty = true;
+    }
+
     public int getTargetDot(int idx, int x, int y) {
         if (x < 0 || x >= mHUnits * UNIT_SIZE || y < 0 || y > mVUnits * UNIT_SIZE) return -1;
         if (idx < 0 || idx + mVUnits * mHUnits > MAX_CHARS) return -1;
@@ -155,16 +164,16 @@ public class ChrData {
         mChrs[idx].setUnitDot(x % UNIT_SIZE, y % UNIT_SIZE, c);
     }
 
-    public void drawTarget(Bitmap bmp, int idx, int pal) {
-        drawTarget(bmp, idx, pal, 0, 0);
+    public void drawTarget(int[] pixels, int stride, int idx, int pal) {
+        drawTarget(pixels, stride, idx, pal, 0, 0);
     }
 
-    public void drawTarget(Bitmap bmp, int idx, int pal, int x, int y) {
-        if (pal < 0 || pal >= ColData.MAX_PALS || bmp == null || mColData == null) return;
+    public void drawTarget(int[] pixels, int stride, int idx, int pal, int x, int y) {
+        if (pal < 0 || pal >= ColData.MAX_PALS || pixels == null || mColData == null) return;
         if (idx < 0 || idx + mVUnits * mHUnits > MAX_CHARS) return;
         for (int i = 0; i < mVUnits; i++) {
             for (int j = 0; j < mHUnits; j++) {
-                mChrs[idx++].drawUnit(bmp, pal, x + j * UNIT_SIZE, y + i * UNIT_SIZE);
+                mChrs[idx++].drawUnit(pixels, stride, pal, x + j * UNIT_SIZE, y + i * UNIT_SIZE);
             }
         }
     }
@@ -220,9 +229,7 @@ public class ChrData {
 
     public boolean deserialize(byte[] data) {
         int headLen = HEADER.length;
-        byte[] headData = new byte[headLen];
-        System.arraycopy(data, 0, headData, 0, headLen);
-        if (Arrays.equals(headData, HEADER)) {
+        if (isValidData(data)) {
             for (int i = 0; i < mChrs.length; i++) {
                 mChrs[i].setBytes(data, headLen + i * BYTES_PER_CHR);
             }
@@ -232,4 +239,13 @@ public class ChrData {
         return false;
     }
 
+    public static boolean isValidData(byte[] data) {
+        if (data == null || data.length < HEADER.length + MAX_CHARS * BYTES_PER_CHR) {
+            return false;
+        }
+        byte[] headData = new byte[HEADER.length];
+        System.arraycopy(data, 0, headData, 0, HEADER.length);
+        return Arrays.equals(headData, HEADER);
+    }
+
 }
@@ -0,0 +1,331 @@
+/*
+ * Copyright (C) 2013 OBN-soft
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package com.obnsoft.chred;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+
+public class ChrTileIndex {
+
+    public static final int TRANSFORMS = 8;
+    public static final int FLIPS = 4;  // transforms without transpose, which SCR can express
+    public static final int TRANSFORM_FLIP_H = 1;
+    public static final int TRANSFORM_FLIP_V = 2;
+    public static final int TRANSFORM_TRANSPOSE = 4;
+    public static final int MAX_NEAR_DISTANCE = ChrData.UNIT_SIZE - 1;
+
+    private List<String> mBankNames = new ArrayList<String>();
+    private List<Tile> mTiles = new ArrayList<Tile>();
+    private HashMap<Tile, List<TileRef>> mExactMap = new HashMap<Tile, List<TileRef>>();
+    private HashMap<Long, List<Integer>> mRowMap = new HashMap<Long, List<Integer>>();
+
+    /*-----------------------------------------------------------------------*/
+
+    static class Tile {
+        public int[] rows = new int[ChrData.UNIT_SIZE]; // 8 dots of 4 bits in each row
+        public int ink;                                 // number of non-zero dots
+        private int mHash;
+        public Tile(ChrData.ChrUnit unit) {
+            for (int y = 0; y < ChrData.UNIT_SIZE; y++) {
+                int row = 0;
+                for (int x = 0; x < ChrData.UNIT_SIZE; x++) {
+                    row = row << 4 | unit.getUnitDot(x, y);
+                }
+                rows[y] = row;
+            }
+            ink = countDots(rows);
+            mHash = Arrays.hashCode(rows);
+        }
+        public Tile(Tile src, int transform) {
+            /*  Flip the source position, then transpose  */
+            int n = ChrData.UNIT_SIZE - 1;
+            for (int y = 0; y <= n; y++) {
+                int row = 0;
+                for (int x = 0; x <= n; x++) {
+                    int sx = ((transform & TRANSFORM_TRANSPOSE) != 0) ? y : x;
+                    int sy = ((transform & TRANSFORM_TRANSPOSE) != 0) ? x : y;
+                    if ((transform & TRANSFORM_FLIP_H) != 0) sx = n - sx;
+                    if ((transform & TRANSFORM_FLIP_V) != 0) sy = n - sy;
+                    row = row << 4 | src.getDot(sx, sy);
+                }
+                rows[y] = row;
+            }
+            ink = src.ink;
+            mHash = Arrays.hashCode(rows);
+        }
+        public int getDot(int x, int y) {
+            return rows[y] >>> (ChrData.UNIT_SIZE - 1 - x) * 4 & 0xF;
+        }
+        public int compareTo(Tile tile) {
+            for (int i = 0; i < rows.length; i++) {
+                if (rows[i] != tile.rows[i]) {
+                    return ((rows[i] ^ 0x80000000) < (tile.rows[i] ^ 0x80000000)) ? -1 : 1;
+                }
+            }
+            return 0;
+        }
+        public int getDistance(Tile tile) {
+            /*  Number of different dots  */
+            int distance = 0;
+            for (int i = 0; i < rows.length; i++) {
+                int x = rows[i] ^ tile.rows[i];
+                x = (x | x >>> 1 | x >>> 2 | x >>> 3) & 0x11111111;
+                distance += Integer.bitCount(x);
+            }
+            return distance;
+        }
+        public boolean isUniform() {
+            int row = rows[0];
+            return ((row ^ row >>> 4) & 0x0FFFFFFF) == 0 && row == rows[1] && row == rows[2] &&
+                    row == rows[3] && row == rows[4] && row == rows[5] && row == rows[6] &&
+                    row == rows[7];
+        }
+        @Override
+        public boolean equals(Object obj) {
+            return (obj instanceof Tile) && Arrays.equals(rows, ((Tile) obj).rows);
+        }
+        @Override
+        public int hashCode() {
+            return mHash;
+        }
+    }
+
+    public static class TileRef {
+        public int bank;
+        public int chr;
+        public int transform;   // to make the canonical (smallest) variant of the group
+        public TileRef(int bank, int chr, int transform) {
+            this.bank = bank;
+            this.chr = chr;
+            this.transform = transform;
+        }
+    }
+
+    public static class Match {
+        public TileRef a;
+        public TileRef b;       // transform is applied to b to resemble a
+        public int distance;
+        public Match(TileRef a, TileRef b, int distance) {
+            this.a = a;
+            this.b = b;
+            this.distance = distance;
+        }
+    }
+
+    /*-----------------------------------------------------------------------*/
+
+    public int addBank(String name, ChrData chrData) {
+        /*  Group by the smallest of 8 variants, and index rows for near matches  */
+        int bank = mBankNames.size();
+        mBankNames.add(name);
+        for (int chr = 0; chr < ChrData.MAX_CHARS; chr++) {
+            Tile tile = new Tile(chrData.getChrUnit(chr));
+            Tile canonical = tile;
+            int transform = 0;
+            for (int t = 1; t < TRANSFORMS; t++) {
+                Tile variant = new Tile(tile, t);
+                if (variant.compareTo(canonical) < 0) {
+                    canonical = variant;
+                    transform = t;
+                }
+            }
+            List<TileRef> group = mExactMap.get(canonical);
+            if (group == null) {
+                group = new ArrayList<TileRef>(1);
+                mExactMap.put(canonical, group);
+            }
+            group.add(new TileRef(bank, chr, transform));
+
+            Integer tileIdx = mTiles.size();
+            mTiles.add(tile);
+            for (int y = 0; y < ChrData.UNIT_SIZE; y++) {
+                Long key = getRowKey(y, tile.rows[y]);
+                List<Integer> bucket = mRowMap.get(key);
+                if (bucket == null) {
+                    bucket = new ArrayList<Integer>(1);
+                    mRowMap.put(key, bucket);
+                }
+                bucket.add(tileIdx);
+            }
+        }
+        return bank;
+    }
+
+    public String getBankName(int bank) {
+        return mBankNames.get(bank);
+    }
+
+    public int getBankCount() {
+        return mBankNames.size();
+    }
+
+    public List<List<TileRef>> findDuplicates(boolean withUniform) {
+        List<List<TileRef>> groups = new ArrayList<List<TileRef>>();
+        for (List<TileRef> group : mExactMap.values()) {
+            if (group.size() > 1 && (withUniform || !getTile(group.get(0)).isUniform())) {
+                groups.add(group);
+            }
+        }
+        return groups;
+    }
+
+    public List<Match> findSimilar(int maxDistance) {
+        /*  Two tiles within 7 dots share at least one row, so look up rows only.
+            Rows such as blank are shared by many tiles, so look up in each bucket
+            only tiles whose number of dots differs by the distance at most.  */
+        maxDistance = Math.min(maxDistance, MAX_NEAR_DISTANCE);
+        Comparator<Integer> byInk = new Comparator<Integer>() {
+            @Override
+            public int compare(Integer a, Integer b) {
+                int ret = mTiles.get(a).ink - mTiles.get(b).ink;
+                return (ret != 0) ? ret : a - b;
+            }
+        };
+        for (List<Integer> bucket : mRowMap.values()) {
+            Collections.sort(bucket, byInk);
+        }
+        HashMap<Long, Match> pairs = new HashMap<Long, Match>();
+        for (int i = 0; i < mTiles.size(); i++) {
+            Tile tile = mTiles.get(i);
+            if (tile.isUniform()) {
+                continue;
+            }
+            for (int t = 0; t < TRANSFORMS; t++) {
+                Tile variant = (t == 0) ? tile : new Tile(tile, t);
+                for (int y = 0; y < ChrData.UNIT_SIZE; y++) {
+                    List<Integer> bucket = mRowMap.get(getRowKey(y, variant.rows[y]));
+                    if (bucket == null) {
+                        continue;
+                    }
+                    int k = findInk(bucket, tile.ink - maxDistance);
+                    for (; k < bucket.size(); k++) {
+                        int j = bucket.get(k);
+                        Tile other = mTiles.get(j);
+                        if (other.ink > tile.ink + maxDistance) {
+                            break;
+                        }
+                        if (j <= i) {
+                            continue;
+                        }
+                        int distance = variant.getDistance(other);
+                        Long pair = Long.valueOf((long) i << 32 | j);
+                        Match match = pairs.get(pair);
+                        if (distance <= maxDistance &&
+                                (match == null || distance < match.distance)) {
+                            match = new Match(getTileRef(j, 0), getTileRef(i, t), distance);
+                            pairs.put(pair, match);
+                        }
+                    }
+                }
+            }
+        }
+        List<Match> matches = new ArrayList<Match>();
+        for (Match match : pairs.values()) {
+            if (match.distance > 0) {
+                matches.add(match); // Exclude exact ones, with any transform
+            }
+        }
+        return matches;
+    }
+
+    /*-----------------------------------------------------------------------*/
+
+    public static int[] consolidate(ChrData chrData, int transforms) {
+        /*  Pack distinct characters forward, and clear the rest. Only the first
+            transforms are tried, which are 1, FLIPS or TRANSFORMS.
+            Returns new index | transform << 8 for each old index.  */
+        int[] remap = new int[ChrData.MAX_CHARS];
+        HashMap<Tile, Integer> firstMap = new HashMap<Tile, Integer>();
+        ChrData.ChrUnit[] units = new ChrData.ChrUnit[ChrData.MAX_CHARS];
+        int count = 0;
+        for (int chr = 0; chr < ChrData.MAX_CHARS; chr++) {
+            ChrData.ChrUnit unit = chrData.getChrUnit(chr);
+            Tile tile = new Tile(unit);
+            Integer found = null;
+            int transform = 0;
+            for (int t = 0; t < transforms && found == null; t++) {
+                found = firstMap.get((t == 0) ? tile : new Tile(tile, t));
+                transform = t;
+            }
+            if (found == null) {
+                firstMap.put(tile, count);
+                units[count] = unit;
+                remap[chr] = count++;
+            } else {
+                remap[chr] = found | getInverse(transform) << 8;
+            }
+        }
+        ChrData.ChrUnit empty = chrData.new ChrUnit();
+        for (int chr = 0; chr < ChrData.MAX_CHARS; chr++) {
+            chrData.setChrUnit(chr, (chr < count) ? units[chr] : empty);
+        }
+        return remap;
+    }
+
+    public static int getInverse(int transform) {
+        /*  Flips are reversed when transposed  */
+        if ((transform & TRANSFORM_TRANSPOSE) == 0) {
+            return transform;
+        }
+        return TRANSFORM_TRANSPOSE | (transform & TRANSFORM_FLIP_H) << 1 |
+                (transform & TRANSFORM_FLIP_V) >> 1;
+    }
+
+    /*-----------------------------------------------------------------------*/
+
+    private Tile getTile(TileRef ref) {
+        return mTiles.get(ref.bank * ChrData.MAX_CHARS + ref.chr);
+    }
+
+    private TileRef getTileRef(int tileIdx, int transform) {
+        return new TileRef(tileIdx / ChrData.MAX_CHARS, tileIdx % ChrData.MAX_CHARS, transform);
+    }
+
+    private int findInk(List<Integer> bucket, int ink) {
+        /*  First position whose number of dots is not less than ink  */
+        int lo = 0, hi = bucket.size();
+        while (lo < hi) {
+            int mid = (lo + hi) >>> 1;
+            if (mTiles.get(bucket.get(mid)).ink < ink) {
+                lo = mid + 1;
+            } else {
+                hi = mid;
+            }
+        }
+        return lo;
+    }
+
+    private static int countDots(int[] rows) {
+        int count = 0;
+        for (int i = 0; i < rows.length; i++) {
+            int x = rows[i];
+            x = (x | x >>> 1 | x >>> 2 | x >>> 3) & 0x11111111;
+            count += Integer.bitCount(x);
+        }
+        return count;
+    }
+
+    private static Long getRowKey(int y, int row) {
+        return Long.valueOf((long) y << 32 | (row & 0xFFFFFFFFL));
+    }
+
+}
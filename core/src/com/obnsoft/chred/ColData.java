@@ -18,8 +18,6 @@ package com.obnsoft.chred;
 
 import java.util.Arrays;
 
-import android.graphics.Color;
-
 public class ColData {
 
     public static final int MAX_PALS = 16;
@@ -36,7 +34,7 @@ public class ColData {
     public ColData() {
         for (int i = 0; i < MAX_PALS; i++) {
             for (int j = 0; j < COLS_PER_PAL; j++) {
-                mColor[i * COLS_PER_PAL + j] = Color.rgb(j << 3, j << 3, j << 3);
+                mColor[i * COLS_PER_PAL + j] = rgb(j << 3, j << 3, j << 3);
             }
         }
     }
@@ -50,8 +48,8 @@ public class ColData {
     }
 
     public int getColor(int pal, int c) {
-        if (pal < 0 || pal >= MAX_PALS || c < 0 || c >= COLS_PER_PAL) return Color.TRANSPARENT;
-        return mColor[pal << 4 | c] & ((c == 0) ? 0x66FFFFFF : Color.WHITE);
+        if (pal < 0 || pal >= MAX_PALS || c < 0 || c >= COLS_PER_PAL) return 0;
+        return mColor[pal << 4 | c] & ((c == 0) ? 0x66FFFFFF : 0xFFFFFFFF);
     }
 
     public void setColor(int pal, int c, int val) {
@@ -88,16 +86,16 @@ public class ColData {
                 src < 0 || src >= COLS_PER_PAL || dest < 0 || dest >= COLS_PER_PAL) return;
         int srcCol = getColor(pal, src);
         int destCol = getColor(pal,dest);
-        int sr = Color.red(srcCol);
-        int sg = Color.green(srcCol);
-        int sb = Color.blue(srcCol);
-        int zr = Color.red(destCol) - sr;
-        int zg = Color.green(destCol) - sg;
-        int zb = Color.blue(destCol) - sb;
+        int sr = red(srcCol);
+        int sg = green(srcCol);
+        int sb = blue(srcCol);
+        int zr = red(destCol) - sr;
+        int zg = green(destCol) - sg;
+        int zb = blue(destCol) - sb;
         int step = Math.abs(dest - src);
         int direction = (src < dest) ? 1 : -1;
         for (int i = 0; src != dest; i++, src += direction) {
-            setColor(pal, src, Color.rgb(
+            setColor(pal, src, rgb(
                     sr + zr * i / step, sg + zg * i / step, sb + zb * i / step));
         }
         mDirty = true;
@@ -107,6 +105,22 @@ public class ColData {
         return val << 3 | val >> 2;
     }
 
+    public static int rgb(int r, int g, int b) {
+        return 0xFF000000 | r << 16 | g << 8 | b;
+    }
+
+    public static int red(int col) {
+        return col >> 16 & 0xFF;
+    }
+
+    public static int green(int col) {
+        return col >> 8 & 0xFF;
+    }
+
+    public static int blue(int col) {
+        return col & 0xFF;
+    }
+
     /*-----------------------------------------------------------------------*/
 
     public byte[] serialize() {
@@ -114,9 +128,9 @@ public class ColData {
         System.arraycopy(HEADER, 0, data, 0, HEADER.length);
         int offset = HEADER.length;
         for (int i = 0; i < mColor.length; i++) {
-            int val = Color.red(mColor[i]) >> 3 |
-                    (Color.green(mColor[i]) & 0xF8) << 2 |
-                    (Color.blue(mColor[i]) & 0xF8) << 7;
+            int val = red(mColor[i]) >> 3 |
+                    (green(mColor[i]) & 0xF8) << 2 |
+                    (blue(mColor[i]) & 0xF8) << 7;
             data[offset + i * 2]     = (byte) (val & 0xFF);
             data[offset + i * 2 + 1] = (byte) (val >> 8 & 0xFF);
         }
@@ -125,12 +139,10 @@ public class ColData {
 
     public boolean deserialize(byte[] data) {
         int headLen = HEADER.length;
-        byte[] headData = new byte[headLen];
-        System.arraycopy(data, 0, headData, 0, headLen);
-        if (Arrays.equals(headData, HEADER)) {
+        if (isValidData(data)) {
             for (int i = 0; i < mColor.length; i++) {
                 int val = data[headLen + i * 2] & 0xFF | data[headLen + i * 2 + 1] << 8 & 0x7F00;
-                mColor[i] = Color.rgb(bits5To8(val & 0x1F),
+                mColor[i] = rgb(bits5To8(val & 0x1F),
                         bits5To8(val >> 5 & 0x1F), bits5To8(val >> 10 & 0x1F));
             }
             mDirty = true;
@@ -139,4 +151,13 @@ public class ColData {
         return false;
     }
 
+    public static boolean isValidData(byte[] data) {
+        if (data == null || data.length < HEADER.length + COLS_PER_PAL * MAX_PALS * 2) {
+            return false;
+        }
+        byte[] headData = new byte[HEADER.length];
+        System.arraycopy(data, 0, headData, 0, HEADER.length);
+        return Arrays.equals(headData, HEADER);
+    }
+
 }
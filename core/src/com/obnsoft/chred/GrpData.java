@@ -0,0 +1,137 @@
+/*
+ * Copyright (C) 2013 OBN-soft
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package com.obnsoft.chred;
+
+import java.util.Arrays;
+
+public class GrpData {
+
+    public static final int WIDTH = 256;
+    public static final int HEIGHT = 192;
+    public static final int UNIT_SIZE = 8;
+    public static final int TILES_H = WIDTH / UNIT_SIZE;
+    public static final int TILES_V = HEIGHT / UNIT_SIZE;
+
+    private static final byte[] HEADER =
+            {'P', 'E', 'T', 'C', '0', '1', '0', '0', 'R', 'G', 'R', 'P'};
+    private static final int BLOCK_SIZE = 64;
+    private static final int BLOCKS_H = WIDTH / BLOCK_SIZE;
+    private static final int UNITS_PER_BLOCK = BLOCK_SIZE / UNIT_SIZE;
+    private static final int BYTES_PER_UNIT = UNIT_SIZE * UNIT_SIZE;
+    private static final int BYTES_PER_BLOCK = BLOCK_SIZE * BLOCK_SIZE;
+    private static final int ALL_TILES = -1 >>> (32 - TILES_H);
+
+    private boolean mDirty = false;
+    private byte[] mDots = new byte[WIDTH * HEIGHT]; // same order as the file
+    private int[] mDirtyTiles = new int[TILES_V];   // a bit for each tile in a row
+
+    /*-----------------------------------------------------------------------*/
+
+    public GrpData() {
+        markAllTilesDirty();
+    }
+
+    public void resetDirty() {
+        mDirty = false;
+    }
+
+    public boolean getDirty() {
+        return mDirty;
+    }
+
+    public int getDot(int x, int y) {
+        if (x < 0 || x >= WIDTH || y < 0 || y >= HEIGHT) return -1;
+        return mDots[getOffset(x, y)] & 0xFF;
+    }
+
+    public void setDot(int x, int y, int c) {
+        if (x < 0 || x >= WIDTH || y < 0 || y >= HEIGHT) return;
+        if (c < 0 || c >= ColData.MAX_PALS * ColData.COLS_PER_PAL) return;
+        int offset = getOffset(x, y);
+        if (mDots[offset] != (byte) c) {
+            mDots[offset] = (byte) c;
+            mDirtyTiles[y / UNIT_SIZE] |= 1 << (x / UNIT_SIZE);
+            mDirty = true;
+        }
+    }
+
+    /*-----------------------------------------------------------------------*/
+
+    public void markAllTilesDirty() {
+        Arrays.fill(mDirtyTiles, ALL_TILES);
+    }
+
+    public int getDirtyTiles(int ty) {
+        return (ty >= 0 && ty < TILES_V) ? mDirtyTiles[ty] : 0;
+    }
+
+    public void drawTiles(int[] pixels, int stride, int[] colors, int tx, int ty, int len) {
+        if (tx < 0 || ty < 0 || ty >= TILES_V || len <= 0 || tx + len > TILES_H) return;
+        for (int i = 0; i < len; i++, tx++) {
+            /*  A tile is a run of 64 bytes in the file, so no swizzling in the loop  */
+            int idx = getOffset(tx * UNIT_SIZE, ty * UNIT_SIZE);
+            int offset = ty * UNIT_SIZE * stride + tx * UNIT_SIZE;
+            for (int y = 0; y < UNIT_SIZE; y++, offset += stride) {
+                for (int x = 0; x < UNIT_SIZE; x++) {
+                    pixels[offset + x] = colors[mDots[idx++] & 0xFF];
+                }
+            }
+            mDirtyTiles[ty] &= ~(1 << tx);
+        }
+    }
+
+    /*-----------------------------------------------------------------------*/
+
+    public byte[] serialize() {
+        byte[] data = new byte[HEADER.length + mDots.length];
+        System.arraycopy(HEADER, 0, data, 0, HEADER.length);
+        System.arraycopy(mDots, 0, data, HEADER.length, mDots.length);
+        return data;
+    }
+
+    public boolean deserialize(byte[] data) {
+        if (isValidData(data)) {
+            System.arraycopy(data, HEADER.length, mDots, 0, mDots.length);
+            markAllTilesDirty();
+            mDirty = true;
+            return true;
+        }
+        return false;
+    }
+
+    public static boolean isValidData(byte[] data) {
+        if (data == null || data.length < HEADER.length + WIDTH * HEIGHT) {
+            return false;
+        }
+        byte[] headData = new byte[HEADER.length];
+        System.arraycopy(data, 0, headData, 0, HEADER.length);
+        return Arrays.equals(headData, HEADER);
+    }
+
+    /*-----------------------------------------------------------------------*/
+
+    private static int getOffset(int x, int y) {
+        /*  64x64 blocks of 8x8 tiles of 8x8 dots, each of them in row-major order  */
+        int block = (y / BLOCK_SIZE) * BLOCKS_H + x / BLOCK_SIZE;
+        int unit = (y / UNIT_SIZE % UNITS_PER_BLOCK) * UNITS_PER_BLOCK
+                + x / UNIT_SIZE % UNITS_PER_BLOCK;
+        return block * BYTES_PER_BLOCK + unit * BYTES_PER_UNIT
+                + (y % UNIT_SIZE) * UNIT_SIZE + x % UNIT_SIZE;
+    }
+
+}
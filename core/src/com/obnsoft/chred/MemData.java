@@ -0,0 +1,102 @@
+/*
+ * Copyright (C) 2013 OBN-soft
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package com.obnsoft.chred;
+
+import java.io.IOException;
+import java.io.Writer;
+import java.util.Arrays;
+
+public class MemData {
+
+    public static final int MAX_CHARS = 256;
+
+    private static final byte[] HEADER =
+            {'P', 'E', 'T', 'C', '0', '2', '0', '0', 'R', 'M', 'E', 'M'};
+    private static final int BYTES_PER_CHAR = 2;
+    private static final int OFFSET_LENGTH = HEADER.length + MAX_CHARS * BYTES_PER_CHAR;
+    private static final int CHUNK_SIZE = 64;
+
+    private byte[] mData;
+    private int mLength;
+
+    /*-----------------------------------------------------------------------*/
+
+    public boolean deserialize(byte[] data) {
+        /*  Characters are decoded only when they are requested  */
+        if (isValidData(data)) {
+            mData = data;
+            mLength = PTCUtils.extractValue(data, OFFSET_LENGTH, 4);
+            return true;
+        }
+        return false;
+    }
+
+    public int getLength() {
+        return mLength;
+    }
+
+    public int getCode(int idx) {
+        if (mData == null || idx < 0 || idx >= mLength) return -1;
+        return PTCUtils.extractValue(mData, HEADER.length + idx * BYTES_PER_CHAR, BYTES_PER_CHAR);
+    }
+
+    public int getChars(int start, int count, char[] dst, int dstOffset, boolean isFullCharset) {
+        count = Math.min(count, mLength - start);
+        for (int i = 0; i < count; i++) {
+            dst[dstOffset + i] = PTCCharset.toChar(getCode(start + i), isFullCharset);
+        }
+        return Math.max(count, 0);
+    }
+
+    public void writeText(Writer out, boolean isFullCharset) throws IOException {
+        char[] buf = new char[CHUNK_SIZE];
+        int pos = 0;
+        for (int i = 0; i < mLength; i++) {
+            int code = getCode(i);
+            if (code == PTCCharset.CODE_CR) {
+                out.write(buf, 0, pos);
+                out.write(PTCUtils.LF);
+                pos = 0;
+                continue;
+            }
+            buf[pos++] = PTCCharset.toChar(code, isFullCharset);
+            if (pos == buf.length) {
+                out.write(buf, 0, pos);
+                pos = 0;
+            }
+        }
+        out.write(buf, 0, pos);
+        out.write(PTCUtils.LF);
+    }
+
+    /*-----------------------------------------------------------------------*/
+
+    public static boolean isValidData(byte[] data) {
+        if (data == null || data.length < OFFSET_LENGTH + 4) {
+            return false;
+        }
+        byte[] headData = new byte[HEADER.length];
+        System.arraycopy(data, 0, headData, 0, HEADER.length);
+        if (!Arrays.equals(headData, HEADER)) {
+            return false;
+        }
+        int length = PTCUtils.extractValue(data, OFFSET_LENGTH, 4);
+        return (length >= 0 && length <= MAX_CHARS);
+    }
+
+}
@@ -14,14 +14,20 @@
  * limitations under the License.
  */
 
+
 package com.obnsoft.chred;
 
 import java.util.Arrays;
 
-public class PrgData {
+public class PTCCharset {
+
+    public static final int CODE_NUL = 0x00;
+    public static final int CODE_CR = 0x0D;
+    public static final int MAX_CODES = 256;
+
+    private static final int HASH_BITS = 9; // table is twice as large as codes
+    private static final int HASH_SIZE = 1 << HASH_BITS;
 
-    private static final byte[] HEADER =
-        {'P', 'E', 'T', 'C', '0', '3', '0', '0', 'R', 'P', 'R', 'G'};
     private static final char[] CHAR_TABLE = {
         0x3000, 0x0410, 0x0411, 0x0412, 0x0413, 0x0414, 0x0415, 0x0401,
         0x0416, 0x0417, 0x2605, 0x0419, 0x041A, 0x041B, 0x041C, 0x041D,
@@ -57,52 +63,69 @@ public class PrgData {
         0x0436, 0x0437, 0x0438, 0x0439, 0x043A, 0x043B, 0x043C, 0x2542,
     };
 
-    public static String convertToString(PTCFile ptcfile, boolean isFullCharset) {
-        /*  Check header and so on  */
-        byte[] data = ptcfile.getData();
-        if (data.length <= 24) {
-            return null;
+    /*  Reverse index of CHAR_TABLE by open addressing  */
+    private static final char[] HASH_CHARS = new char[HASH_SIZE];
+    private static final short[] HASH_CODES = new short[HASH_SIZE];
+
+    static {
+        Arrays.fill(HASH_CODES, (short) -1);
+        for (int i = 0; i < MAX_CODES; i++) {
+            int code = (i + 0x20) % MAX_CODES; // Printable codes win over control ones
+            if (code == CODE_NUL || code == CODE_CR) {
+                continue; // Not allowed in a line of PRG
+            }
+            char c = CHAR_TABLE[code];
+            int idx = hash(c);
+            while (HASH_CODES[idx] >= 0 && HASH_CHARS[idx] != c) {
+                idx = (idx + 1) & (HASH_SIZE - 1);
+            }
+            if (HASH_CODES[idx] < 0) {
+                HASH_CHARS[idx] = c;
+                HASH_CODES[idx] = (short) code;
+            }
+        }
+    }
+
+    /*-----------------------------------------------------------------------*/
+
+    public static char toChar(int code, boolean isFullCharset) {
+        if (code < 0 || code >= MAX_CODES) {
+            return '?';
         }
-        byte[] headData = new byte[HEADER.length];
-        System.arraycopy(data, 0, headData, 0, HEADER.length);
-        if (!Arrays.equals(headData, HEADER)) {
-            return null;
+        if (isFullCharset) {
+            return CHAR_TABLE[code];
+        }
+        if (code >= 0x20 && code <= 0x7E) {
+            return (char) code;
         }
-        int dataLen = Utils.extractValue(data, 20, 4) + 24;
-        if (data.length < dataLen) {
-            return null;
+        if (code >= 0xA1 && code <= 0xDF) {
+            return (char) (code + 0xFEC0); // Half-width katakana
         }
+        return '?';
+    }
 
-        /*  Convert  */
-        StringBuffer buf = new StringBuffer(dataLen - 24);
-        int val = 0;
-        if (isFullCharset) {
-            for (int i = 24; i < dataLen; i++) {
-                val = data[i] & 0xFF;
-                if (val == 0x0D) {
-                    buf.append(Utils.LF);
-                } else {
-                    buf.append(CHAR_TABLE[val]);
-                }
-            }
-        } else {
-            for (int i = 24; i < dataLen; i++) {
-                val = data[i] & 0xFF;
-                if (val == 0x0D) {
-                    buf.append(Utils.LF);
-                } else if (val >= 0x20 && val <= 0x7E) {
-                    buf.append((char) val);
-                } else if (val >= 0xA1 && val <= 0xDF) {
-                    buf.append((char) (val + 0xFEC0));
-                } else {
-                    buf.append('?');
-                }
-            }
+    public static int toCode(char c) {
+        /*  Both of full charset and ASCII with half-width katakana are accepted  */
+        if (c >= 0x20 && c <= 0x7E) {
+            return c;
         }
-        if (val != 0x0D) {
-            buf.append(Utils.LF);
+        if (c >= 0xFF61 && c <= 0xFF9F) {
+            return c - 0xFEC0;
         }
-        return buf.toString();
+        int idx = hash(c);
+        while (HASH_CODES[idx] >= 0) {
+            if (HASH_CHARS[idx] == c) {
+                return HASH_CODES[idx];
+            }
+            idx = (idx + 1) & (HASH_SIZE - 1);
+        }
+        return -1;
+    }
+
+    /*-----------------------------------------------------------------------*/
+
+    private static int hash(char c) {
+        return (c * 0x9E3779B1) >>> (32 - HASH_BITS);
     }
 
 }
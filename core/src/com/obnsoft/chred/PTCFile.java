@@ -19,17 +19,12 @@ package com.obnsoft.chred;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
+import java.security.MessageDigest;
 import java.util.Arrays;
-import java.util.Locale;
 import java.util.zip.DataFormatException;
 import java.util.zip.Deflater;
 import java.util.zip.Inflater;
 
-import android.graphics.Bitmap;
-import android.graphics.Canvas;
-import android.graphics.Color;
-import android.graphics.Paint;
-
 import com.swetake.util.Qrcode;
 
 public class PTCFile {
@@ -42,6 +37,9 @@ public class PTCFile {
     public static final int PTC_TYPE_SCR = 4;
     public static final int PTC_TYPE_COL = 5;
 
+    public static final String ENAME_DEFAULT = "ANDROID";
+
+    public static final int HEADLEN_FILE = 20;
     public static final int HEADLEN_CMPRSDATA = 20;
     public static final int WORKLEN_CMPRSDATA = 1024 * 1024; // 1MiB
 
@@ -52,12 +50,13 @@ public class PTCFile {
     private static final byte[] MD5EXTRA =
             {'P', 'E', 'T', 'I', 'T', 'C', 'O', 'M'};
 
+    public static final int QR_SIZE = 190; // double of 95 (Ver20 QR size)
+    public static final int QR_MARGIN = 16;
+    public static final int QR_PADDING = 32;
+    public static final int QR_STEP = QR_SIZE + QR_MARGIN * 2;
+
     private static final int QR_CAPACITY_20_M = 666;
     private static final int QR_CAPACITY_20_L = 858;
-    private static final int QR_SIZE = 190; // double of 95 (Ver20 QR size)
-    private static final int QR_MARGIN = 16;
-    private static final int QR_PADDING = 32;
-    private static final int QR_STEP = QR_SIZE + QR_MARGIN * 2;
 
     private String mName;
     private int mType;
@@ -97,20 +96,24 @@ public class PTCFile {
         }
         String name = getName();
         return getPrefixFromType(mType).concat(":").concat(
-                (name == null || name.length() == 0) ? MyApplication.ENAME_DEFAULT : name);
+                (name == null || name.length() == 0) ? ENAME_DEFAULT : name);
     }
 
     public boolean load(InputStream in) {
-        byte[] header = new byte[20];
+        byte[] header = new byte[HEADLEN_FILE];
         byte[] md5 = new byte[16];
         clear();
         try {
             in.read(header);
-            if (!PTC_ID.equals(Utils.extractString(header, 0, 4))) {
+            if (!isFileHeader(header)) {
                 return false;
             }
             in.read(md5);
-            mData = new byte[Utils.extractValue(header, 4, 4)];
+            int dataLen = PTCUtils.extractValue(header, 4, 4);
+            if (dataLen < 0 || dataLen > WORKLEN_CMPRSDATA) {
+                return false;
+            }
+            mData = new byte[dataLen];
             in.read(mData);
             if (!Arrays.equals(md5, getPetitcomMD5(mData))) {
                 clear();
@@ -121,8 +124,8 @@ public class PTCFile {
             clear();
             return false;
         }
-        mType = Utils.extractValue(header, 8, 4);
-        mName = Utils.extractString(header, 12, 8);
+        mType = PTCUtils.extractValue(header, 8, 4);
+        mName = PTCUtils.extractString(header, 12, 8);
         return true;
     }
 
@@ -130,7 +133,7 @@ public class PTCFile {
         if (cmprsData.length <= 20) {
             return false;
         }
-        int finalLen = Utils.extractValue(cmprsData, 16, 4);
+        int finalLen = PTCUtils.extractValue(cmprsData, 16, 4);
         byte[] data = new byte[finalLen];
         int dataLen = 0;
         try {
@@ -144,11 +147,11 @@ public class PTCFile {
         if (dataLen != finalLen) {
             return false;
         }
-        mType = getTypeFromPrefix(Utils.extractString(cmprsData, 9, 3));
+        mType = getTypeFromPrefix(PTCUtils.extractString(cmprsData, 9, 3));
         if (mType == PTC_TYPE_UNKNOWN) {
             return false;
         }
-        mName = Utils.extractString(cmprsData, 0, 8);
+        mName = PTCUtils.extractString(cmprsData, 0, 8);
         mData = data;
         return true;
     }
@@ -161,10 +164,6 @@ public class PTCFile {
         return compress(mName, mType, mData);
     }
 
-    public Bitmap generateQRCodes(boolean isTight, String footer) {
-        return generateQRCodes(compress(), isTight, footer);
-    }
-
     public void clear() {
         mName = null;
         mType = PTC_TYPE_UNKNOWN;
@@ -173,6 +172,11 @@ public class PTCFile {
 
     /*-----------------------------------------------------------------------*/
 
+    public static boolean isFileHeader(byte[] header) {
+        return (header.length >= HEADLEN_FILE &&
+                PTC_ID.equals(PTCUtils.extractString(header, 0, 4)));
+    }
+
     public static int getTypeFromPrefix(String prefix) {
         for (int i = 0; i < PTC_TYPE_PREFIX.length; i++) {
             if (prefix.equals(PTC_TYPE_PREFIX[i])) {
@@ -191,13 +195,13 @@ public class PTCFile {
             return false;
         }
         if (name == null || name.length() == 0) {
-            name = MyApplication.ENAME_DEFAULT;
+            name = ENAME_DEFAULT;
         }
         byte[] header = new byte[20];
-        Utils.embedString(header, 0, 4, PTC_ID);
-        Utils.embedValue(header, 4, 4, data.length);
-        Utils.embedValue(header, 8, 4, type);
-        Utils.embedString(header, 12, 8, name);
+        PTCUtils.embedString(header, 0, 4, PTC_ID);
+        PTCUtils.embedValue(header, 4, 4, data.length);
+        PTCUtils.embedValue(header, 8, 4, type);
+        PTCUtils.embedString(header, 12, 8, name);
         byte[] md5 = getPetitcomMD5(data);
         try {
             out.write(header);
@@ -215,7 +219,7 @@ public class PTCFile {
             return null;
         }
         if (name == null || name.length() == 0) {
-            name = MyApplication.ENAME_DEFAULT;
+            name = ENAME_DEFAULT;
         }
         byte[] work = new byte[WORKLEN_CMPRSDATA];
         Deflater compresser = new Deflater(Deflater.BEST_COMPRESSION);
@@ -225,104 +229,54 @@ public class PTCFile {
         compresser.end();
         if (len > 0 && len < work.length - 1) {
             byte[] cmprsData = new byte[20 + len];
-            Utils.embedString(cmprsData, 0, 8, name);
+            PTCUtils.embedString(cmprsData, 0, 8, name);
             cmprsData[8] = 'R';
-            Utils.embedString(cmprsData, 9, 3, PTC_TYPE_PREFIX[type]);
-            Utils.embedValue(cmprsData, 12, 4, len);
-            Utils.embedValue(cmprsData, 16, 4, data.length);
+            PTCUtils.embedString(cmprsData, 9, 3, PTC_TYPE_PREFIX[type]);
+            PTCUtils.embedValue(cmprsData, 12, 4, len);
+            PTCUtils.embedValue(cmprsData, 16, 4, data.length);
             System.arraycopy(work, 0, cmprsData, 20, len);
             return cmprsData;
         }
         return null;
     }
 
-    public static Bitmap generateQRCodes(byte[] cmprsData, boolean isTight, String footer) {
+    public static byte[][] splitQRData(byte[] cmprsData, boolean isTight) {
         if (cmprsData == null) return null;
-
-        /*  Prepare for processing data  */
-        byte[] md5 = Utils.getMD5(cmprsData);
-        byte[] qrData = new byte[isTight ? QR_CAPACITY_20_L : QR_CAPACITY_20_M];
-        int dataUnit = qrData.length - 36;
+        byte[] md5 = PTCUtils.getMD5(cmprsData);
+        int dataUnit = (isTight ? QR_CAPACITY_20_L : QR_CAPACITY_20_M) - 36;
         int qrCount = (int) Math.ceil(cmprsData.length / (double) dataUnit);
-        byte[] partData = new byte[dataUnit];
-        Qrcode qrBuilder = new Qrcode();
-        qrBuilder.setQrcodeVersion(20);
-        qrBuilder.setQrcodeEncodeMode('B');
-        qrBuilder.setQrcodeErrorCorrect(isTight ? 'L' : 'M');
-
-        /*  Prepare bitmap  */
-        int qw = (int) Math.ceil(Math.sqrt(qrCount));
-        int qh = (qrCount + qw - 1) / qw;
-        Bitmap bmp = Bitmap.createBitmap(qw * QR_STEP + QR_PADDING * 2,
-                qh * QR_STEP + QR_PADDING * 2, Bitmap.Config.RGB_565);
-        bmp.eraseColor(Color.WHITE);
-        Canvas canvas = new Canvas(bmp);
-        Paint paint = new Paint(Paint.ANTI_ALIAS_FLAG);
-        paint.setStyle(Paint.Style.FILL);
-        if (footer != null) {
-            paint.setColor(Color.GRAY);
-            paint.setTextSize(12);
-            canvas.drawText(footer, bmp.getWidth() - paint.measureText(footer),
-                    bmp.getHeight() - paint.descent(), paint);
-        }
-        paint.setColor(Color.BLACK);
-        paint.setTextSize(24);
-        String lbl = Utils.extractString(cmprsData, 9, 3)
-                .concat(":").concat(Utils.extractString(cmprsData, 0, 8));
-        canvas.drawText(lbl, (bmp.getWidth() - paint.measureText(lbl)) / 2, QR_PADDING, paint);
-        int qx = QR_MARGIN + QR_PADDING;
-        int qy = QR_MARGIN + QR_PADDING;
-        paint.setTextSize(16);
-
+        byte[][] qrDatas = new byte[qrCount][];
         for (int i = 0; i < qrCount; i++) {
-            /*  Generate QR code  */
-            int len = cmprsData.length - i * dataUnit;
-            if (len > dataUnit) {
-                len = dataUnit;
-            } else {
-                partData = new byte[len];
-                qrData = new byte[len + 36];
-            }
-            System.arraycopy(cmprsData, i * dataUnit, partData, 0, len);
-            byte[] md5each = Utils.getMD5(partData);
-            Utils.embedString(qrData, 0, 2, PTCQR_ID);
-            Utils.embedValue(qrData, 2, 1, i + 1);
-            Utils.embedValue(qrData, 3, 1, qrCount);
+            int len = Math.min(cmprsData.length - i * dataUnit, dataUnit);
+            byte[] md5each = PTCUtils.getMD5(cmprsData, i * dataUnit, len);
+            byte[] qrData = new byte[len + 36];
+            PTCUtils.embedString(qrData, 0, 2, PTCQR_ID);
+            PTCUtils.embedValue(qrData, 2, 1, i + 1);
+            PTCUtils.embedValue(qrData, 3, 1, qrCount);
             System.arraycopy(md5each, 0, qrData, 4, 16);
             System.arraycopy(md5, 0, qrData, 20, 16);
-            System.arraycopy(partData, 0, qrData, 36, len);
-            boolean[][] qr = qrBuilder.calQrcode(qrData);
-
-            /*  Draw QR code  */
-            if (qrCount > 0) {
-                paint.setAntiAlias(true);
-                lbl = String.format(Locale.US, "%d / %d", i + 1, qrCount);
-                canvas.drawText(lbl, qx - QR_MARGIN + (QR_STEP - paint.measureText(lbl)) / 2,
-                        qy - QR_MARGIN + QR_STEP + paint.getTextSize() / 2, paint);
-            }
-            paint.setAntiAlias(false);
-            for (int x = 0, xMax = qr.length; x < xMax; x++) {
-                for (int y = 0, yMax = qr[x].length; y < yMax; y++) {
-                    if (qr[x][y]) {
-                        canvas.drawRect(qx + x * 2, qy + y * 2,
-                                qx + x * 2 + 2, qy + y * 2 + 2, paint);
-                    }
-                }
-            }
-            qx += QR_STEP;
-            if (qx >= qw * QR_STEP) {
-                qx = QR_MARGIN + QR_PADDING;
-                qy += QR_STEP;
-            }
+            System.arraycopy(cmprsData, i * dataUnit, qrData, 36, len);
+            qrDatas[i] = qrData;
         }
-        return bmp;
+        return qrDatas;
+    }
+
+    public static boolean[][] encodeQRCode(byte[] qrData, boolean isTight) {
+        Qrcode qrBuilder = new Qrcode();
+        qrBuilder.setQrcodeVersion(20);
+        qrBuilder.setQrcodeEncodeMode('B');
+        qrBuilder.setQrcodeErrorCorrect(isTight ? 'L' : 'M');
+        return qrBuilder.calQrcode(qrData);
     }
 
     private static byte[] getPetitcomMD5(byte[] data) {
-        byte[] work = new byte[MD5EXTRA.length + data.length];
-        System.arraycopy(MD5EXTRA, 0, work, 0, MD5EXTRA.length);
-        System.arraycopy(data, 0, work, MD5EXTRA.length, data.length);
-        return Utils.getMD5(work);
+        MessageDigest digest = PTCUtils.getMD5Digest();
+        if (digest == null) {
+            return null;
+        }
+        digest.update(MD5EXTRA);
+        digest.update(data);
+        return digest.digest();
     }
 
 }
@@ -0,0 +1,293 @@
+/*
+ * Copyright (C) 2013 OBN-soft
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package com.obnsoft.chred;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+
+public class PTCIndex {
+
+    private static final int INDEX_ID = 0x50494458; // "PIDX"
+    private static final int INDEX_VERSION = 2;
+    private static final int MD5LEN = 16;
+    private static final String FNAMEEXT_PTC = ".ptc";
+
+    private HashMap<String, Entry> mEntries = new HashMap<String, Entry>();
+    private boolean mDirty;
+
+    /*-----------------------------------------------------------------------*/
+
+    public static class Entry {
+        public String path;
+        public long size;
+        public long lastModified;
+        public int type;        // PTC_TYPE_UNKNOWN if not a PTC file
+        public String name;
+        public int dataLen;
+        public byte[] md5;      // stored in the file, null if not a PTC file
+        public boolean isSameFile(long size, long lastModified) {
+            return (this.size == size && this.lastModified == lastModified);
+        }
+    }
+
+    /*-----------------------------------------------------------------------*/
+
+    public synchronized int size() {
+        return mEntries.size();
+    }
+
+    public synchronized boolean isDirty() {
+        return mDirty;
+    }
+
+    public synchronized Entry get(String path) {
+        return mEntries.get(path);
+    }
+
+    public synchronized void put(Entry entry) {
+        mEntries.put(entry.path, entry);
+        mDirty = true;
+    }
+
+    public synchronized List<List<Entry>> findDuplicates() {
+        /*  Group by type, length and MD5 in the headers  */
+        HashMap<String, List<Entry>> groupMap = new HashMap<String, List<Entry>>();
+        for (Entry entry : mEntries.values()) {
+            if (entry.type == PTCFile.PTC_TYPE_UNKNOWN || entry.md5 == null) {
+                continue;
+            }
+            String key = getContentKey(entry);
+            List<Entry> group = groupMap.get(key);
+            if (group == null) {
+                group = new ArrayList<Entry>(2);
+                groupMap.put(key, group);
+            }
+            group.add(entry);
+        }
+        Comparator<Entry> comparator = new Comparator<Entry>() {
+            @Override
+            public int compare(Entry a, Entry b) {
+                return a.path.compareTo(b.path);
+            }
+        };
+        List<List<Entry>> groups = new ArrayList<List<Entry>>();
+        for (List<Entry> group : groupMap.values()) {
+            if (group.size() > 1) {
+                Collections.sort(group, comparator);
+                groups.add(group);
+            }
+        }
+        Collections.sort(groups, new Comparator<List<Entry>>() {
+            @Override
+            public int compare(List<Entry> a, List<Entry> b) {
+                return a.get(0).path.compareTo(b.get(0).path);
+            }
+        });
+        return groups;
+    }
+
+    public static String getContentKey(Entry entry) {
+        StringBuffer buf = new StringBuffer(MD5LEN * 2 + 16);
+        for (byte b : entry.md5) {
+            buf.append(Character.forDigit(b >> 4 & 0xF, 16));
+            buf.append(Character.forDigit(b & 0xF, 16));
+        }
+        return buf.append(':').append(entry.type).append(':').append(entry.dataLen).toString();
+    }
+
+    public synchronized List<Entry> find(String dir, int type, String name) {
+        /*  Filter by directory (recursively), type and part of name  */
+        String key = (name == null || name.length() == 0) ? null : name.toUpperCase(Locale.US);
+        List<Entry> entries = new ArrayList<Entry>();
+        for (Entry entry : mEntries.values()) {
+            if (entry.type == PTCFile.PTC_TYPE_UNKNOWN ||
+                    (dir != null && !entry.path.startsWith(dir)) ||
+                    (type != PTCFile.PTC_TYPE_UNKNOWN && entry.type != type) ||
+                    (key != null && !matchName(entry, key))) {
+                continue;
+            }
+            entries.add(entry);
+        }
+        Collections.sort(entries, new Comparator<Entry>() {
+            @Override
+            public int compare(Entry a, Entry b) {
+                return a.path.compareTo(b.path);
+            }
+        });
+        return entries;
+    }
+
+    public static boolean matchName(Entry entry, String key) {
+        /*  Either embedded name or file name  */
+        if (entry.name != null && entry.name.toUpperCase(Locale.US).contains(key)) {
+            return true;
+        }
+        String fileName = entry.path.substring(entry.path.lastIndexOf(File.separatorChar) + 1);
+        return fileName.toUpperCase(Locale.US).contains(key);
+    }
+
+    /*-----------------------------------------------------------------------*/
+
+    public int update(File root) {
+        /*  Read headers of new or modified files only  */
+        HashMap<String, Entry> entries = new HashMap<String, Entry>();
+        int[] count = new int[1];
+        collectEntries(root, entries, count);
+        synchronized (this) {
+            if (count[0] > 0 || entries.size() != mEntries.size()) {
+                mDirty = true;
+            }
+            mEntries = entries;
+        }
+        return count[0];
+    }
+
+    public static Entry readEntry(File file) {
+        Entry entry = new Entry();
+        entry.path = file.getPath();
+        entry.size = file.length();
+        entry.lastModified = file.lastModified();
+        entry.type = PTCFile.PTC_TYPE_UNKNOWN;
+        byte[] header = new byte[PTCFile.HEADLEN_FILE + MD5LEN];
+        InputStream in = null;
+        try {
+            in = new FileInputStream(file);
+            if (PTCUtils.readFully(in, header) && PTCFile.isFileHeader(header)) {
+                entry.dataLen = PTCUtils.extractValue(header, 4, 4);
+                entry.type = PTCUtils.extractValue(header, 8, 4);
+                entry.name = PTCUtils.extractString(header, 12, 8);
+                entry.md5 = new byte[MD5LEN];
+                System.arraycopy(header, PTCFile.HEADLEN_FILE, entry.md5, 0, MD5LEN);
+                if (PTCFile.getPrefixFromType(entry.type) == null) {
+                    entry.type = PTCFile.PTC_TYPE_UNKNOWN;
+                    entry.md5 = null;
+                }
+            }
+        } catch (IOException e) {
+            e.printStackTrace();
+        } finally {
+            if (in != null) {
+                try {
+                    in.close();
+                } catch (IOException e) {
+                    e.printStackTrace();
+                }
+            }
+        }
+        return entry;
+    }
+
+    /*-----------------------------------------------------------------------*/
+
+    public synchronized boolean load(InputStream in) {
+        HashMap<String, Entry> entries = new HashMap<String, Entry>();
+        try {
+            DataInputStream din = new DataInputStream(in);
+            if (din.readInt() != INDEX_ID || din.readInt() != INDEX_VERSION) {
+                return false;
+            }
+            for (int i = din.readInt(); i > 0; i--) {
+                Entry entry = new Entry();
+                entry.path = din.readUTF();
+                entry.size = din.readLong();
+                entry.lastModified = din.readLong();
+                entry.type = din.readByte();
+                entry.name = din.readUTF();
+                entry.dataLen = din.readInt();
+                if (din.readBoolean()) {
+                    entry.md5 = new byte[MD5LEN];
+                    din.readFully(entry.md5);
+                }
+                entries.put(entry.path, entry);
+            }
+        } catch (IOException e) {
+            e.printStackTrace();
+            return false;
+        }
+        mEntries = entries;
+        mDirty = false;
+        return true;
+    }
+
+    public synchronized boolean save(OutputStream out) {
+        try {
+            DataOutputStream dout = new DataOutputStream(out);
+            dout.writeInt(INDEX_ID);
+            dout.writeInt(INDEX_VERSION);
+            dout.writeInt(mEntries.size());
+            for (Entry entry : mEntries.values()) {
+                dout.writeUTF(entry.path);
+                dout.writeLong(entry.size);
+                dout.writeLong(entry.lastModified);
+                dout.writeByte(entry.type);
+                dout.writeUTF((entry.name == null) ? "" : entry.name);
+                dout.writeInt(entry.dataLen);
+                dout.writeBoolean(entry.md5 != null);
+                if (entry.md5 != null) {
+                    dout.write(entry.md5);
+                }
+            }
+            dout.flush();
+        } catch (IOException e) {
+            e.printStackTrace();
+            return false;
+        }
+        mDirty = false;
+        return true;
+    }
+
+    /*-----------------------------------------------------------------------*/
+
+    private void collectEntries(File dir, HashMap<String, Entry> entries, int[] count) {
+        File[] files = dir.listFiles();
+        if (files == null) {
+            return;
+        }
+        for (File file : files) {
+            String fileName = file.getName();
+            if (fileName.startsWith(".")) {
+                continue;
+            }
+            if (file.isDirectory()) {
+                collectEntries(file, entries, count);
+                continue;
+            }
+            if (!fileName.toLowerCase(Locale.US).endsWith(FNAMEEXT_PTC)) {
+                continue;
+            }
+            Entry entry = get(file.getPath());
+            if (entry == null || !entry.isSameFile(file.length(), file.lastModified())) {
+                entry = readEntry(file);
+                count[0]++;
+            }
+            entries.put(entry.path, entry);
+        }
+    }
+
+}
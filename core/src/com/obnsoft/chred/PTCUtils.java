@@ -0,0 +1,106 @@
+/*
+ * Copyright (C) 2013 OBN-soft
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.obnsoft.chred;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Arrays;
+
+public class PTCUtils {
+
+    public static final String LF = "\r\n";
+
+    /*  Looking up the provider is much slower than hashing a QR chunk  */
+    private static final ThreadLocal<MessageDigest> sMD5Digest = new ThreadLocal<MessageDigest>() {
+        @Override
+        protected MessageDigest initialValue() {
+            try {
+                return MessageDigest.getInstance("MD5");
+            } catch (NoSuchAlgorithmException e) {
+                e.printStackTrace();
+            }
+            return null;
+        }
+    };
+
+    public static MessageDigest getMD5Digest() {
+        MessageDigest digest = sMD5Digest.get();
+        if (digest != null) {
+            digest.reset();
+        }
+        return digest;
+    }
+
+    public static byte[] getMD5(byte[] data) {
+        return getMD5(data, 0, data.length);
+    }
+
+    public static byte[] getMD5(byte[] data, int offset, int len) {
+        MessageDigest digest = getMD5Digest();
+        if (digest == null) {
+            return null;
+        }
+        digest.update(data, offset, len);
+        return digest.digest();
+    }
+
+    public static boolean readFully(InputStream in, byte[] buf) throws IOException {
+        int len = 0;
+        while (len < buf.length) {
+            int ret = in.read(buf, len, buf.length - len);
+            if (ret < 0) {
+                return false;
+            }
+            len += ret;
+        }
+        return true;
+    }
+
+    public static String extractString(byte[] data, int start, int len) {
+        StringBuffer buf = new StringBuffer();
+        for (int i = 0; i < len; i++) {
+            char c = (char) data[start + i];
+            if (c >= 'a') c -= 0x20;
+            if (c >= '0' && c <= '9' || c >= 'A' && c <= 'Z' || c == '_') buf.append(c);
+        }
+        return buf.toString();
+    }
+
+    public static void embedString(byte[] data, int start, int len, String str) {
+        Arrays.fill(data, start, start + len, (byte) 0);
+        System.arraycopy(str.getBytes(), 0, data, start,
+                (str.length() > len) ? len : str.length());
+    }
+
+    public static int extractValue(byte[] data, int start, int len) {
+        int val = 0;
+        for (int i = 0; i < len; i++) {
+            val |= (data[start + i] & 0xFF) << i * 8;
+        }
+        return val;
+    }
+
+    public static void embedValue(byte[] ary, int start, int len, int val) {
+        for (int i = 0; i < len; i++) {
+            ary[start + i] = (byte) (val & 0xFF);
+            val >>= 8;
+        }
+    }
+
+}
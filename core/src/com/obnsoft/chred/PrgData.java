@@ -0,0 +1,119 @@
+/*
+ * Copyright (C) 2013 OBN-soft
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.obnsoft.chred;
+
+import java.io.IOException;
+import java.io.StringWriter;
+import java.io.Writer;
+import java.util.Arrays;
+
+public class PrgData {
+
+    static final byte[] HEADER =
+        {'P', 'E', 'T', 'C', '0', '3', '0', '0', 'R', 'P', 'R', 'G'};
+    private static final int CHUNK_SIZE = 1024;
+
+    public static String convertToString(PTCFile ptcfile, boolean isFullCharset) {
+        byte[] data = ptcfile.getData();
+        if (!isValidData(data)) {
+            return null;
+        }
+        StringWriter writer = new StringWriter(PTCUtils.extractValue(data, 20, 4) + 2);
+        try {
+            writeText(ptcfile, writer, isFullCharset);
+        } catch (IOException e) {
+            e.printStackTrace(); // Never happens
+            return null;
+        }
+        return writer.toString();
+    }
+
+    public static boolean writeText(PTCFile ptcfile, Writer out, boolean isFullCharset)
+            throws IOException {
+        /*  Check header and so on  */
+        byte[] data = ptcfile.getData();
+        if (!isValidData(data)) {
+            return false;
+        }
+        int dataLen = PTCUtils.extractValue(data, 20, 4) + 24;
+
+        /*  Convert through a fixed-size buffer  */
+        char[] buf = new char[CHUNK_SIZE];
+        int pos = 0;
+        int val = 0;
+        for (int i = 24; i < dataLen; i++) {
+            if (pos >= CHUNK_SIZE - 1) {
+                out.write(buf, 0, pos);
+                pos = 0;
+            }
+            val = data[i] & 0xFF;
+            if (val == PTCCharset.CODE_CR) {
+                buf[pos++] = '\r';
+                buf[pos++] = '\n';
+            } else {
+                buf[pos++] = PTCCharset.toChar(val, isFullCharset);
+            }
+        }
+        out.write(buf, 0, pos);
+        if (val != PTCCharset.CODE_CR) {
+            out.write(PTCUtils.LF);
+        }
+        return true;
+    }
+
+    public static String[] getHeadLines(PTCFile ptcfile, int maxLines, boolean isFullCharset) {
+        byte[] data = ptcfile.getData();
+        if (!isValidData(data)) {
+            return null;
+        }
+        int dataLen = PTCUtils.extractValue(data, 20, 4) + 24;
+
+        /*  Convert only until enough line breaks are found  */
+        String[] lines = new String[maxLines];
+        StringBuilder sb = new StringBuilder();
+        int count = 0;
+        for (int i = 24; i < dataLen && count < maxLines; i++) {
+            int val = data[i] & 0xFF;
+            if (val == PTCCharset.CODE_CR) {
+                lines[count++] = sb.toString();
+                sb.setLength(0);
+            } else {
+                sb.append(PTCCharset.toChar(val, isFullCharset));
+            }
+        }
+        if (count < maxLines && sb.length() > 0) {
+            lines[count++] = sb.toString();
+        }
+        String[] ret = new String[count];
+        System.arraycopy(lines, 0, ret, 0, count);
+        return ret;
+    }
+
+    public static boolean isValidData(byte[] data) {
+        if (data == null || data.length <= 24) {
+            return false;
+        }
+        byte[] headData = new byte[HEADER.length];
+        System.arraycopy(data, 0, headData, 0, HEADER.length);
+        if (!Arrays.equals(headData, HEADER)) {
+            return false;
+        }
+        int dataLen = PTCUtils.extractValue(data, 20, 4) + 24;
+        return (dataLen >= 24 && data.length >= dataLen);
+    }
+
+}
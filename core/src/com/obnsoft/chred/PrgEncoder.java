@@ -0,0 +1,109 @@
+/*
+ * Copyright (C) 2013 OBN-soft
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package com.obnsoft.chred;
+
+import java.io.BufferedReader;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.LinkedList;
+
+public class PrgEncoder {
+
+    private static final String PREFIX_TITLE = "PRG:";
+    private static final String SEPARATOR = "--------";
+    private static final String FOOTER = "Generated by ";
+    private static final int DATA_OFFSET = 24;
+
+    private String mName;
+    private int mUnmapped;
+    private ByteArrayOutputStream mOut;
+
+    /*-----------------------------------------------------------------------*/
+
+    public byte[] encode(BufferedReader in) throws IOException {
+        mName = null;
+        mUnmapped = 0;
+        mOut = new ByteArrayOutputStream();
+        mOut.write(PrgData.HEADER);
+        mOut.write(new byte[DATA_OFFSET - PrgData.HEADER.length]);
+
+        /*  Strip title and footer if the text was exported by this app  */
+        LinkedList<String> lines = new LinkedList<String>();
+        String line = in.readLine();
+        boolean isWrapped = false;
+        if (line != null && line.startsWith(PREFIX_TITLE)) {
+            String nextLine = in.readLine();
+            if (SEPARATOR.equals(nextLine)) {
+                mName = line.substring(PREFIX_TITLE.length());
+                isWrapped = true;
+            } else {
+                lines.add(line);
+                if (nextLine != null) {
+                    lines.add(nextLine);
+                }
+            }
+        } else if (line != null) {
+            lines.add(line);
+        }
+        while ((line = in.readLine()) != null) {
+            lines.add(line);
+            if (lines.size() > 2) {
+                encodeLine(lines.removeFirst());
+            }
+        }
+        if (isWrapped) {
+            if (lines.size() == 2 && SEPARATOR.equals(lines.getFirst()) &&
+                    lines.getLast().startsWith(FOOTER)) {
+                lines.clear();
+            } else if (!lines.isEmpty() && SEPARATOR.equals(lines.getLast())) {
+                lines.removeLast();
+            }
+        }
+        for (String rest : lines) {
+            encodeLine(rest);
+        }
+
+        byte[] data = mOut.toByteArray();
+        PTCUtils.embedValue(data, 20, 4, data.length - DATA_OFFSET);
+        mOut = null;
+        return data;
+    }
+
+    public String getName() {
+        return mName;
+    }
+
+    public int getUnmappedCount() {
+        return mUnmapped;
+    }
+
+    /*-----------------------------------------------------------------------*/
+
+    private void encodeLine(String line) {
+        for (int i = 0, len = line.length(); i < len; i++) {
+            int code = PTCCharset.toCode(line.charAt(i));
+            if (code < 0) {
+                code = '?';
+                mUnmapped++;
+            }
+            mOut.write(code);
+        }
+        mOut.write(PTCCharset.CODE_CR);
+    }
+
+}
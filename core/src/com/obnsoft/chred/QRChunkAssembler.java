@@ -0,0 +1,157 @@
+/*
+ * Copyright (C) 2013 OBN-soft
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.obnsoft.chred;
+
+import java.util.Arrays;
+
+public class QRChunkAssembler {
+
+    public static final int RESULT_ACCEPTED = 0;
+    public static final int RESULT_DUPLICATED = 1;
+    public static final int RESULT_COMPLETED = 2;
+    public static final int RESULT_INVALID = -1;
+    public static final int RESULT_CORRUPT = -2;
+    public static final int RESULT_DIFFERENT = -3;
+    public static final int RESULT_BROKEN = -4;
+
+    public static final int HEADLEN_QRDATA = 36;
+
+    private int mTotalCnt;
+    private int mCurCnt;
+    private byte[] mMd5All = new byte[16];
+    private byte[][] mParts;
+    private byte[] mCmprsData;
+
+    /*-----------------------------------------------------------------------*/
+
+    public QRChunkAssembler() {
+        clear();
+    }
+
+    public synchronized void clear() {
+        mTotalCnt = 0;
+        mCurCnt = 0;
+        mParts = null;
+        mCmprsData = null;
+    }
+
+    public synchronized int getTotalCount() {
+        return mTotalCnt;
+    }
+
+    public synchronized int getAcceptedCount() {
+        return mCurCnt;
+    }
+
+    public synchronized boolean isAccepted(int number) {
+        return mParts != null && number >= 1 && number <= mTotalCnt && mParts[number - 1] != null;
+    }
+
+    public synchronized int getNextNumber() {
+        for (int i = 0; i < mTotalCnt; i++) {
+            if (mParts[i] == null) {
+                return i + 1;
+            }
+        }
+        return mTotalCnt + 1;
+    }
+
+    public synchronized String getNameWithType() {
+        if (mParts == null || mParts[0] == null) {
+            return null;
+        }
+        return PTCUtils.extractString(mParts[0], 9, 3).concat(":")
+                .concat(PTCUtils.extractString(mParts[0], 0, 8));
+    }
+
+    public synchronized byte[] getData() {
+        return mCmprsData;
+    }
+
+    public synchronized int addPart(byte[] qrData) {
+        if (qrData.length <= HEADLEN_QRDATA || qrData[0] != 'P' || qrData[1] != 'T') {
+            return RESULT_INVALID;
+        }
+        int number = qrData[2] & 0xFF;
+        int count = qrData[3] & 0xFF;
+        if (count == 0 || number < 1 || number > count) {
+            return RESULT_INVALID;
+        }
+        byte[] md5each = new byte[16];
+        byte[] md5 = new byte[16];
+        System.arraycopy(qrData, 4, md5each, 0, 16);
+        System.arraycopy(qrData, 20, md5, 0, 16);
+        int partLen = qrData.length - HEADLEN_QRDATA;
+        if (!Arrays.equals(md5each, PTCUtils.getMD5(qrData, HEADLEN_QRDATA, partLen))) {
+            return RESULT_CORRUPT;
+        }
+        byte[] partData = new byte[partLen];
+        System.arraycopy(qrData, HEADLEN_QRDATA, partData, 0, partLen);
+        if (number == 1 && !checkFirstPart(partData)) {
+            return RESULT_CORRUPT;
+        }
+
+        /*  Store data after check  */
+        if (mTotalCnt == 0) {
+            mTotalCnt = count;
+            System.arraycopy(md5, 0, mMd5All, 0, 16);
+            mParts = new byte[count][];
+        } else if (count != mTotalCnt || !Arrays.equals(md5, mMd5All)) {
+            return RESULT_DIFFERENT;
+        }
+        if (mParts[number - 1] != null) {
+            return RESULT_DUPLICATED;
+        }
+        mParts[number - 1] = partData;
+        mCurCnt++;
+        if (mCurCnt < mTotalCnt) {
+            return RESULT_ACCEPTED;
+        }
+
+        /*  Concatenate all parts  */
+        int totalLen = PTCUtils.extractValue(mParts[0], 12, 4) + PTCFile.HEADLEN_CMPRSDATA;
+        int curLen = 0;
+        for (byte[] part : mParts) {
+            curLen += part.length;
+        }
+        if (curLen != totalLen) {
+            return RESULT_BROKEN;
+        }
+        byte[] cmprsData = new byte[totalLen];
+        curLen = 0;
+        for (byte[] part : mParts) {
+            System.arraycopy(part, 0, cmprsData, curLen, part.length);
+            curLen += part.length;
+        }
+        if (!Arrays.equals(mMd5All, PTCUtils.getMD5(cmprsData))) {
+            return RESULT_BROKEN;
+        }
+        mCmprsData = cmprsData;
+        return RESULT_COMPLETED;
+    }
+
+    /*-----------------------------------------------------------------------*/
+
+    private boolean checkFirstPart(byte[] partData) {
+        if (partData.length <= PTCFile.HEADLEN_CMPRSDATA) {
+            return false;
+        }
+        int totalLen = PTCUtils.extractValue(partData, 12, 4) + PTCFile.HEADLEN_CMPRSDATA;
+        return (totalLen > 0 && totalLen <= PTCFile.WORKLEN_CMPRSDATA);
+    }
+
+}
@@ -0,0 +1,93 @@
+/*
+ * Copyright (C) 2013 OBN-soft
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.obnsoft.chred;
+
+import jp.sourceforge.qrcode.QRCodeDecoder;
+import jp.sourceforge.qrcode.data.QRCodeImage;
+import jp.sourceforge.qrcode.exception.DecodingFailedException;
+
+public class QRImageBuffer implements QRCodeImage {
+
+    public static final int MAX_SIZE = 512;
+    public static final int MIN_SIZE = 256;
+
+    private static final int COLOR_QUIET = 0xFFFFFF;
+
+    private int[] mPixels;
+    private int mStride;
+    private int mRows;
+    private int mX, mY, mW, mH;
+    private int mSkip = 1;
+    private int mScale = 1;
+
+    /*-----------------------------------------------------------------------*/
+
+    public QRImageBuffer(int[] pixels, int stride, int rows) {
+        mPixels = pixels;
+        mStride = stride;
+        mRows = rows;
+    }
+
+    public void setTargetArea(int x, int y, int w, int h) {
+        /*  QRCodeImageReader holds a static precision derived from the image size,
+            so every image decoded concurrently must be sampled into the same range.  */
+        mX = x;
+        mY = y;
+        mW = w;
+        mH = h;
+        mSkip = 1;
+        mScale = 1;
+        while (getWidth() > MAX_SIZE || getHeight() > MAX_SIZE) {
+            mSkip++;
+        }
+        while (getWidth() < MIN_SIZE && getHeight() < MIN_SIZE) {
+            mScale++;
+        }
+    }
+
+    @Override
+    public int getWidth() {
+        return mW * mScale / mSkip;
+    }
+
+    @Override
+    public int getHeight() {
+        return mH * mScale / mSkip;
+    }
+
+    @Override
+    public int getPixel(int x, int y) {
+        x = x * mSkip / mScale + mX;
+        y = y * mSkip / mScale + mY;
+        if (x >= 0 && y >= 0 && x < mStride && y < mRows) {
+            return mPixels[y * mStride + x];
+        } else {
+            return COLOR_QUIET;
+        }
+    }
+
+    /*-----------------------------------------------------------------------*/
+
+    public static byte[] decode(QRCodeDecoder decoder, QRCodeImage image) {
+        try {
+            return decoder.decode(image);
+        } catch (DecodingFailedException e) {
+            return null;
+        }
+    }
+
+}
@@ -0,0 +1,380 @@
+/*
+ * Copyright (C) 2013 OBN-soft
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.obnsoft.chred;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+
+public class QRLocator {
+
+    private static final int MAX_COLUMNS = 16;
+    private static final float LAYOUT_TOLERANCE = .05f;
+    private static final float RATIO_TOLERANCE = .5f;
+    private static final float DISTANCE_TOLERANCE = .15f;
+    private static final float MODULE_TOLERANCE = .25f;
+    private static final float TIMING_TOLERANCE = .125f;
+    private static final int MIN_VERSION = 1;
+    private static final int MAX_VERSION = 40;
+    private static final int MAX_THRESHOLD_ITERATIONS = 16;
+
+    /*-----------------------------------------------------------------------*/
+
+    public static class Area {
+        public int x, y, w, h;
+        public byte[] qrData;   // decoded while locating, or null
+        public Area(int x, int y, int w, int h) {
+            this.x = x;
+            this.y = y;
+            this.w = w;
+            this.h = h;
+        }
+    }
+
+    public interface AreaDecoder {
+        public byte[] decode(Area area);
+    }
+
+    static class Finder {
+        public float x, y, module;
+        public int count = 1;
+        public boolean used;
+        public Finder(float x, float y, float module) {
+            this.x = x;
+            this.y = y;
+            this.module = module;
+        }
+    }
+
+    static class Triple {
+        public Finder tl, tr, bl;
+        public float module, dist;
+        public Triple(Finder tl, Finder tr, Finder bl, float module, float dist) {
+            this.tl = tl;
+            this.tr = tr;
+            this.bl = bl;
+            this.module = module;
+            this.dist = dist;
+        }
+    }
+
+    /*-----------------------------------------------------------------------*/
+
+    public static List<Area> locateByLayout(int width, int height, AreaDecoder decoder) {
+        /*  Square grids of any size fit a square sheet equally, so decode the first area
+            of each candidate until a code tells how many codes the sheet has  */
+        List<List<Area>> grids = getLayoutGrids(width, height);
+        for (List<Area> grid : grids) {
+            byte[] qrData = decoder.decode(grid.get(0));
+            if (qrData == null || qrData.length < 4 || qrData[0] != 'P' || qrData[1] != 'T') {
+                continue;
+            }
+            int count = qrData[3] & 0xFF;
+            int qw = (int) Math.ceil(Math.sqrt(count));
+            int cells = qw * ((count + qw - 1) / qw);
+            for (List<Area> areas : grids) {
+                if (areas.size() == cells) {
+                    if (areas == grid) {
+                        areas.get(0).qrData = qrData; // Not to decode it again
+                    }
+                    return areas;
+                }
+            }
+        }
+        return new ArrayList<Area>();
+    }
+
+    private static List<List<Area>> getLayoutGrids(int width, int height) {
+        /*  Find the grids which fit the aspect ratio of a sheet by generateQRCodes(),
+            in order of scale nearest to actual size  */
+        List<List<Area>> grids = new ArrayList<List<Area>>();
+        List<Float> diffs = new ArrayList<Float>();
+        for (int qw = 1; qw <= MAX_COLUMNS; qw++) {
+            float scale = width / (float) (qw * PTCFile.QR_STEP + PTCFile.QR_PADDING * 2);
+            float qhf = (height / scale - PTCFile.QR_PADDING * 2) / PTCFile.QR_STEP;
+            int qh = Math.round(qhf);
+            if (qh < 1 || qh > qw || qh < qw - 1 || Math.abs(qhf - qh) >= LAYOUT_TOLERANCE) {
+                continue;
+            }
+            List<Area> areas = new ArrayList<Area>();
+            int size = Math.round(PTCFile.QR_STEP * scale);
+            for (int qy = 0; qy < qh; qy++) {
+                for (int qx = 0; qx < qw; qx++) {
+                    areas.add(new Area(
+                            Math.round((PTCFile.QR_PADDING + qx * PTCFile.QR_STEP) * scale),
+                            Math.round((PTCFile.QR_PADDING + qy * PTCFile.QR_STEP) * scale),
+                            size, size));
+                }
+            }
+            float diff = Math.abs((float) Math.log(scale));
+            int pos = 0;
+            while (pos < diffs.size() && diffs.get(pos) <= diff) {
+                pos++;
+            }
+            diffs.add(pos, diff);
+            grids.add(pos, areas);
+        }
+        return grids;
+    }
+
+    public static List<Area> locateByFinderPatterns(byte[] gray, int width, int height) {
+        /*  Decide threshold between dark and light levels, not the mean of the whole
+            image which is mostly white and lets blurred edges of modules be dark  */
+        int[] hist = new int[256];
+        for (int i = 0; i < gray.length; i++) {
+            hist[gray[i] & 0xFF]++;
+        }
+        int threshold = getThreshold(hist);
+
+        /*  Scan rows for 1:1:3:1:1 patterns  */
+        List<Finder> finders = new ArrayList<Finder>();
+        int[] runs = new int[5];
+        for (int y = 0; y < height; y++) {
+            int offset = y * width;
+            int state = 0;
+            runs[0] = runs[1] = runs[2] = runs[3] = runs[4] = 0;
+            for (int x = 0; x < width; x++) {
+                boolean dark = (gray[offset + x] & 0xFF) < threshold;
+                if (dark == ((state & 1) == 0)) {
+                    runs[state]++;
+                } else if (state == 0 && runs[0] == 0) {
+                    continue;
+                } else if (state < 4) {
+                    runs[++state]++;
+                } else {
+                    if (isFinderRatio(runs)) {
+                        int total = runs[0] + runs[1] + runs[2] + runs[3] + runs[4];
+                        float cx = x - runs[4] - runs[3] - runs[2] / 2f;
+                        float cy = crossCheckVertical(gray, width, height,
+                                (int) cx, y, runs[2], total, threshold);
+                        if (cy >= 0) {
+                            addFinder(finders, cx, cy, total / 7f);
+                        }
+                    }
+                    runs[0] = runs[2];
+                    runs[1] = runs[3];
+                    runs[2] = runs[4];
+                    runs[3] = 1;
+                    runs[4] = 0;
+                    state = 3;
+                }
+            }
+        }
+
+        /*  Group finder patterns into symbols  */
+        List<Finder> reliable = new ArrayList<Finder>();
+        for (Finder f : finders) {
+            if (f.count >= 2) {
+                reliable.add(f);
+            }
+        }
+        List<Triple> triples = new ArrayList<Triple>();
+        for (Finder tl : reliable) {
+            for (Finder tr : reliable) {
+                if (tr == tl || !isSimilarModule(tl, tr)) {
+                    continue;
+                }
+                float trDist = tr.x - tl.x;
+                if (trDist <= 0 || Math.abs(tr.y - tl.y) >= trDist / 4) {
+                    continue;
+                }
+                for (Finder bl : reliable) {
+                    if (bl == tl || bl == tr || !isSimilarModule(tl, bl)) {
+                        continue;
+                    }
+                    float blDist = bl.y - tl.y;
+                    float maxDist = Math.max(trDist, blDist);
+                    if (blDist <= 0 || Math.abs(bl.x - tl.x) >= blDist / 4 ||
+                            Math.abs(trDist - blDist) > maxDist * DISTANCE_TOLERANCE) {
+                        continue;
+                    }
+                    /*  Data modules may look like finder patterns, and finders of adjacent
+                        symbols also line up, so check timing patterns between them  */
+                    float module = (tl.module + tr.module + bl.module) / 3f;
+                    float dist = (trDist + blDist) / 2f;
+                    int span = getTimingSpan(gray, width, height, threshold, tl, tr, bl,
+                            dist / module);
+                    if (span == 0) {
+                        continue;
+                    }
+                    triples.add(new Triple(tl, tr, bl, dist / span, dist));
+                }
+            }
+        }
+
+        /*  Prefer smaller triples in case that some finders are shared  */
+        Collections.sort(triples, new Comparator<Triple>() {
+            @Override
+            public int compare(Triple a, Triple b) {
+                return Float.compare(a.dist, b.dist);
+            }
+        });
+        List<Area> areas = new ArrayList<Area>();
+        for (Triple triple : triples) {
+            Finder tl = triple.tl, tr = triple.tr, bl = triple.bl;
+            if (tl.used || tr.used || bl.used) {
+                continue;
+            }
+            tl.used = tr.used = bl.used = true;
+            float margin = triple.module * 8f; // half of finder pattern and quiet zone
+            int l = (int) (Math.min(tl.x, bl.x) - margin);
+            int t = (int) (Math.min(tl.y, tr.y) - margin);
+            int r = (int) (tr.x + margin);
+            int b = (int) (bl.y + margin);
+            areas.add(new Area(l, t, r - l, b - t));
+        }
+        return areas;
+    }
+
+    /*-----------------------------------------------------------------------*/
+
+    private static int getThreshold(int[] hist) {
+        /*  Iterative intermeans  */
+        long sum = 0, count = 0;
+        for (int i = 0; i < hist.length; i++) {
+            sum += (long) hist[i] * i;
+            count += hist[i];
+        }
+        int threshold = (int) (sum / Math.max(count, 1));
+        for (int n = 0; n < MAX_THRESHOLD_ITERATIONS; n++) {
+            long darkSum = 0, darkCount = 0;
+            for (int i = 0; i < threshold; i++) {
+                darkSum += (long) hist[i] * i;
+                darkCount += hist[i];
+            }
+            if (darkCount == 0 || darkCount == count) {
+                break;
+            }
+            int next = (int) ((darkSum / darkCount + (sum - darkSum) / (count - darkCount)) / 2);
+            if (next == threshold) {
+                break;
+            }
+            threshold = next;
+        }
+        return threshold;
+    }
+
+    private static int getTimingSpan(byte[] gray, int width, int height, int threshold,
+            Finder tl, Finder tr, Finder bl, float estimated) {
+        /*  Distance between centers of finders is the symbol size less 7 modules, and
+            the estimated module size may be a little wrong, so try neighbor versions  */
+        int version = Math.round((estimated - 10) / 4f);
+        for (int v = version - 1; v <= version + 1; v++) {
+            if (v < MIN_VERSION || v > MAX_VERSION) {
+                continue;
+            }
+            int span = v * 4 + 10;
+            if (isTimingPattern(gray, width, height, threshold, tl, tr, bl, span) &&
+                    isTimingPattern(gray, width, height, threshold, tl, bl, tr, span)) {
+                return span;
+            }
+        }
+        return 0;
+    }
+
+    private static boolean isTimingPattern(byte[] gray, int width, int height, int threshold,
+            Finder from, Finder to, Finder side, int span) {
+        /*  Timing pattern is 3 modules inside from the centers of finders, and its
+            modules alternate from dark one next to the separator  */
+        float ux = (to.x - from.x) / span;
+        float uy = (to.y - from.y) / span;
+        float vx = (side.x - from.x) / span;
+        float vy = (side.y - from.y) / span;
+        int errors = 0;
+        for (int k = 5; k <= span - 5; k++) {
+            int x = Math.round(from.x + ux * k + vx * 3f);
+            int y = Math.round(from.y + uy * k + vy * 3f);
+            if (x < 0 || y < 0 || x >= width || y >= height) {
+                return false;
+            }
+            boolean dark = (gray[y * width + x] & 0xFF) < threshold;
+            if (dark != ((k & 1) == 1)) {
+                errors++;
+            }
+        }
+        return errors <= (span - 9) * TIMING_TOLERANCE;
+    }
+
+    private static boolean isSimilarModule(Finder a, Finder b) {
+        return Math.abs(a.module - b.module) <= a.module * MODULE_TOLERANCE;
+    }
+
+    private static boolean isFinderRatio(int[] runs) {
+        int total = runs[0] + runs[1] + runs[2] + runs[3] + runs[4];
+        if (total < 7) {
+            return false;
+        }
+        float module = total / 7f;
+        float tolerance = module * RATIO_TOLERANCE;
+        return Math.abs(module - runs[0]) < tolerance &&
+                Math.abs(module - runs[1]) < tolerance &&
+                Math.abs(module * 3f - runs[2]) < tolerance * 3f &&
+                Math.abs(module - runs[3]) < tolerance &&
+                Math.abs(module - runs[4]) < tolerance;
+    }
+
+    private static float crossCheckVertical(byte[] gray, int width, int height,
+            int cx, int cy, int maxCore, int maxTotal, int threshold) {
+        int[] runs = new int[5];
+        int y = cy;
+        while (y >= 0 && (gray[y * width + cx] & 0xFF) < threshold) {
+            runs[2]++;
+            y--;
+        }
+        while (y >= 0 && (gray[y * width + cx] & 0xFF) >= threshold && runs[1] <= maxCore) {
+            runs[1]++;
+            y--;
+        }
+        while (y >= 0 && (gray[y * width + cx] & 0xFF) < threshold && runs[0] <= maxCore) {
+            runs[0]++;
+            y--;
+        }
+        y = cy + 1;
+        while (y < height && (gray[y * width + cx] & 0xFF) < threshold) {
+            runs[2]++;
+            y++;
+        }
+        while (y < height && (gray[y * width + cx] & 0xFF) >= threshold && runs[3] <= maxCore) {
+            runs[3]++;
+            y++;
+        }
+        while (y < height && (gray[y * width + cx] & 0xFF) < threshold && runs[4] <= maxCore) {
+            runs[4]++;
+            y++;
+        }
+        int total = runs[0] + runs[1] + runs[2] + runs[3] + runs[4];
+        if (Math.abs(total - maxTotal) * 2 >= maxTotal || !isFinderRatio(runs)) {
+            return -1;
+        }
+        return y - runs[4] - runs[3] - runs[2] / 2f;
+    }
+
+    private static void addFinder(List<Finder> finders, float x, float y, float module) {
+        for (Finder f : finders) {
+            if (Math.abs(f.x - x) < module * 3f && Math.abs(f.y - y) < module * 3f) {
+                f.x = (f.x * f.count + x) / (f.count + 1);
+                f.y = (f.y * f.count + y) / (f.count + 1);
+                f.module = (f.module * f.count + module) / (f.count + 1);
+                f.count++;
+                return;
+            }
+        }
+        finders.add(new Finder(x, y, module));
+    }
+
+}
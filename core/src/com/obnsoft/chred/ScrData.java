@@ -0,0 +1,101 @@
+/*
+ * Copyright (C) 2013 OBN-soft
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package com.obnsoft.chred;
+
+import java.util.Arrays;
+
+public class ScrData {
+
+    public static final int MAP_SIZE = 64;
+    public static final int CHR_MASK = 0x3FF;
+    public static final int FLIP_H = 0x400;
+    public static final int FLIP_V = 0x800;
+    public static final int PAL_SHIFT = 12;
+
+    private static final byte[] HEADER =
+            {'P', 'E', 'T', 'C', '0', '1', '0', '0', 'R', 'S', 'C', 'R'};
+    private static final int QUARTER_SIZE = MAP_SIZE / 2;
+    private static final int BYTES_PER_ENTRY = 2;
+
+    private short[] mEntries = new short[MAP_SIZE * MAP_SIZE]; // in row-major order
+
+    /*-----------------------------------------------------------------------*/
+
+    public int getEntry(int x, int y) {
+        if (x < 0 || x >= MAP_SIZE || y < 0 || y >= MAP_SIZE) return -1;
+        return mEntries[y * MAP_SIZE + x] & 0xFFFF;
+    }
+
+    public void setEntry(int x, int y, int entry) {
+        if (x < 0 || x >= MAP_SIZE || y < 0 || y >= MAP_SIZE) return;
+        mEntries[y * MAP_SIZE + x] = (short) entry;
+    }
+
+    public static int getChrIndex(int entry) {
+        return entry & CHR_MASK;
+    }
+
+    public static int getPalette(int entry) {
+        return entry >> PAL_SHIFT & 0xF;
+    }
+
+    /*-----------------------------------------------------------------------*/
+
+    public byte[] serialize() {
+        byte[] data = new byte[HEADER.length + mEntries.length * BYTES_PER_ENTRY];
+        System.arraycopy(HEADER, 0, data, 0, HEADER.length);
+        for (int i = 0; i < mEntries.length; i++) {
+            int offset = HEADER.length + getFileIndex(i) * BYTES_PER_ENTRY;
+            data[offset]     = (byte) (mEntries[i] & 0xFF);
+            data[offset + 1] = (byte) (mEntries[i] >> 8 & 0xFF);
+        }
+        return data;
+    }
+
+    public boolean deserialize(byte[] data) {
+        if (isValidData(data)) {
+            for (int i = 0; i < mEntries.length; i++) {
+                int offset = HEADER.length + getFileIndex(i) * BYTES_PER_ENTRY;
+                mEntries[i] = (short) (data[offset] & 0xFF | data[offset + 1] << 8);
+            }
+            return true;
+        }
+        return false;
+    }
+
+    public static boolean isValidData(byte[] data) {
+        if (data == null || data.length < HEADER.length + MAP_SIZE * MAP_SIZE * BYTES_PER_ENTRY) {
+            return false;
+        }
+        byte[] headData = new byte[HEADER.length];
+        System.arraycopy(data, 0, headData, 0, HEADER.length);
+        return Arrays.equals(headData, HEADER);
+    }
+
+    /*-----------------------------------------------------------------------*/
+
+    private static int getFileIndex(int idx) {
+        /*  The file holds four 32x32 screens: upper left, upper right, lower left and right  */
+        int x = idx % MAP_SIZE;
+        int y = idx / MAP_SIZE;
+        int quarter = (y / QUARTER_SIZE) * 2 + x / QUARTER_SIZE;
+        return quarter * QUARTER_SIZE * QUARTER_SIZE
+                + (y % QUARTER_SIZE) * QUARTER_SIZE + x % QUARTER_SIZE;
+    }
+
+}
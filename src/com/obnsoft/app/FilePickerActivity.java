@@ -17,19 +17,23 @@
 package com.obnsoft.app;
 
 import java.io.File;
-import java.io.FileFilter;
 import java.util.ArrayList;
+import java.util.Collections;
 import java.util.Comparator;
+import java.util.LinkedHashMap;
+import java.util.Map;
 
 import android.app.ListActivity;
 import android.content.Context;
 import android.content.Intent;
 import android.os.Bundle;
 import android.os.Environment;
+import android.os.FileObserver;
+import android.os.Handler;
 import android.view.Gravity;
 import android.view.View;
 import android.view.ViewGroup;
-import android.widget.ArrayAdapter;
+import android.widget.BaseAdapter;
 import android.widget.ImageView;
 import android.widget.LinearLayout;
 import android.widget.ListView;
@@ -43,6 +47,21 @@ public class FilePickerActivity extends ListActivity {
     public static final String INTENT_EXTRA_WRITEMODE = "writeMode";
     public static final String INTENT_EXTRA_SELECTPATH = "selectPath";
 
+    private static final int PAGE_SIZE = 256;
+    private static final int MAX_CACHED_DIRS = 16;
+    private static final long MSEC_MTIME_GRANULARITY = 2000; // FAT
+    private static final int OBSERVE_EVENTS = FileObserver.CREATE | FileObserver.DELETE |
+            FileObserver.MOVED_FROM | FileObserver.MOVED_TO | FileObserver.DELETE_SELF;
+
+    private static final LinkedHashMap<String, Listing> sListingCache =
+            new LinkedHashMap<String, Listing>(MAX_CACHED_DIRS, .75f, true) {
+        private static final long serialVersionUID = 1L;
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<String, Listing> eldest) {
+            return size() > MAX_CACHED_DIRS;
+        }
+    };
+
     private String mDirTop;
     private String mDirCurrent;
     private String mExtension;
@@ -50,15 +69,119 @@ public class FilePickerActivity extends ListActivity {
     private int mPosNewEntry;
     private ArrayList<String> mStackPath = new ArrayList<String>();
     private FilePickerAdapter mAdapter;
+    private Handler mHandler = new Handler();
+    private Thread mListingThread;
+    private volatile int mListGeneration;
+    private FileObserver mObserver;
+    private EntryFilter mFilter;
 
     private int mResIdDir = android.R.drawable.ic_menu_more;
     private int mResIdFile = android.R.drawable.ic_menu_set_as;
     private int mResIdNew = android.R.drawable.ic_menu_add;
     private int mResIdNewMsg = 0;
 
-    class FilePickerAdapter extends ArrayAdapter<File> {
+    public interface EntryFilter {
+        public boolean accept(FileEntry entry);
+    }
+
+    public static class FileEntry {
+        public File file;
+        public String name;
+        public boolean isDirectory;
+        public FileEntry(File file, boolean isDirectory) {
+            this.file = file;
+            this.name = file.getName();
+            this.isDirectory = isDirectory;
+        }
+    }
+
+    private static final Comparator<FileEntry> ENTRY_COMPARATOR = new Comparator<FileEntry>() {
+        @Override
+        public int compare(FileEntry a, FileEntry b) {
+            if (a.isDirectory != b.isDirectory) {
+                return (a.isDirectory) ? -1 : 1;
+            }
+            return a.name.compareToIgnoreCase(b.name);
+        }
+    };
+
+    static class Listing {
+        public long lastModified;
+        public ArrayList<FileEntry> entries;
+        public Listing(long lastModified, ArrayList<FileEntry> entries) {
+            this.lastModified = lastModified;
+            this.entries = entries;
+        }
+    }
+
+    /*-----------------------------------------------------------------------*/
+
+    class ListingThread extends Thread {
+
+        private String mPath;
+        private int mGeneration;
+        private long mLastModified;
+
+        public ListingThread(String path, int generation) {
+            mPath = path;
+            mGeneration = generation;
+        }
+
+        @Override
+        public void run() {
+            /*  Check each entry only once, and pass them in sorted pages  */
+            File dir = new File(mPath);
+            mLastModified = dir.lastModified(); // Before listing, to be conservative
+            String[] names = dir.list();
+            ArrayList<FileEntry> page = new ArrayList<FileEntry>(PAGE_SIZE);
+            if (names != null) {
+                for (String name : names) {
+                    if (mGeneration != mListGeneration) {
+                        return;
+                    }
+                    if (name.startsWith(".")) {
+                        continue; // Hidden
+                    }
+                    File file = new File(mPath, name);
+                    boolean isDirectory = file.isDirectory();
+                    if (isDirectory || mExtension == null ||
+                            name.toLowerCase().endsWith(mExtension)) {
+                        page.add(new FileEntry(file, isDirectory));
+                    }
+                    if (page.size() >= PAGE_SIZE) {
+                        postPage(page, false);
+                        page = new ArrayList<FileEntry>(PAGE_SIZE);
+                    }
+                }
+            }
+            postPage(page, true);
+        }
+
+        private void postPage(final ArrayList<FileEntry> page, final boolean isLast) {
+            Collections.sort(page, ENTRY_COMPARATOR);
+            mHandler.post(new Runnable() {
+                @Override
+                public void run() {
+                    if (mGeneration == mListGeneration) {
+                        mAdapter.addEntries(page);
+                        if (isLast) {
+                            putCache(mPath, mLastModified, mAdapter.getEntries());
+                            mListingThread = null;
+                            onListingStateChanged(false);
+                        }
+                    }
+                }
+            });
+        }
+    }
+
+    /*-----------------------------------------------------------------------*/
+
+    class FilePickerAdapter extends BaseAdapter {
 
         private Context mContext;
+        private ArrayList<FileEntry> mEntries = new ArrayList<FileEntry>();
+        private ArrayList<FileEntry> mShownEntries = mEntries;
 
         class FilePickerViewHolder {
             public ImageView imageView;
@@ -66,48 +189,63 @@ public class FilePickerActivity extends ListActivity {
         }
 
         public FilePickerAdapter(Context context) {
-            super(context, 0);
             mContext = context;
         }
 
-        public void setTargetDirectory(String path) {
-            clear();
-            File dir = new File(path);
-            if (dir != null) {
-                File[] files = dir.listFiles(new FileFilter() {
-                    @Override
-                    public boolean accept(File file) {
-                        if (file.isHidden()) {
-                            return false;
-                        }
-                        if (mExtension == null || file.isDirectory()) {
-                            return true;
-                        }
-                        return file.getName().toLowerCase().endsWith(mExtension);
-                    }
-                });
-                if (files != null) {
-                    for (File file : files) {
-                        add(file);
+        public void clearEntries() {
+            mEntries.clear();
+            applyFilter();
+        }
+
+        public void setEntries(ArrayList<FileEntry> entries) {
+            mEntries.clear();
+            mEntries.addAll(entries);
+            applyFilter();
+        }
+
+        public ArrayList<FileEntry> getEntries() {
+            return new ArrayList<FileEntry>(mEntries);
+        }
+
+        public void addEntries(ArrayList<FileEntry> entries) {
+            if (entries.isEmpty()) {
+                return;
+            }
+            mEntries.addAll(entries);
+            Collections.sort(mEntries, ENTRY_COMPARATOR); // Merges sorted runs quickly
+            applyFilter();
+        }
+
+        public void applyFilter() {
+            if (mFilter == null) {
+                mShownEntries = mEntries;
+            } else {
+                mShownEntries = new ArrayList<FileEntry>();
+                for (FileEntry entry : mEntries) {
+                    if (mFilter.accept(entry)) {
+                        mShownEntries.add(entry);
                     }
-                    sort(new Comparator<File>() {
-                        @Override
-                        public int compare(File a, File b) {
-                            if (a.isDirectory() != b.isDirectory()) {
-                                return (a.isDirectory()) ? -1 : 1;
-                            }
-                            return a.getName().compareToIgnoreCase(b.getName());
-                        }
-                    });
                 }
             }
-            if (mWriteMode) {
-                mPosNewEntry = getCount();
-                add(null);
-            }
+            mPosNewEntry = mShownEntries.size();
             notifyDataSetChanged();
         }
 
+        @Override
+        public int getCount() {
+            return mShownEntries.size() + (mWriteMode ? 1 : 0);
+        }
+
+        @Override
+        public FileEntry getItem(int position) {
+            return (position < mShownEntries.size()) ? mShownEntries.get(position) : null;
+        }
+
+        @Override
+        public long getItemId(int position) {
+            return position;
+        }
+
         @Override
         public View getView(int position, View convertView, ViewGroup parent) {
             FilePickerViewHolder holder;
@@ -124,16 +262,16 @@ public class FilePickerActivity extends ListActivity {
             } else {
                 holder = (FilePickerViewHolder) convertView.getTag();
             }
-            File file = (File) getItem(position);
+            FileEntry entry = getItem(position);
             holder.textView.setSingleLine(true);
             holder.textView.setTextAppearance(mContext, android.R.style.TextAppearance_Large);
             if (mWriteMode && position == mPosNewEntry) {
                 holder.textView.setText(
                         (mResIdNewMsg == 0) ? "(New File)" : getText(mResIdNewMsg));
-                holder.imageView.setImageResource(mResIdNew);
+                onBindFileIcon(holder.imageView, null);
             } else {
-                holder.textView.setText(file.getName());
-                holder.imageView.setImageResource(file.isDirectory() ? mResIdDir : mResIdFile);
+                holder.textView.setText(entry.name);
+                onBindFileIcon(holder.imageView, entry);
             }
             return convertView;
         }
@@ -188,17 +326,24 @@ public class FilePickerActivity extends ListActivity {
     @Override
     protected void onListItemClick(ListView l, View v, int position, long id) {
         super.onListItemClick(l, v, position, id);
-        File file = (File) mAdapter.getItem(position);
+        FileEntry entry = mAdapter.getItem(position);
         if (mWriteMode && position == mPosNewEntry) {
             onNewFileRequested(mDirCurrent, mExtension);
-        } else if (file.isDirectory()) {
+        } else if (entry.isDirectory) {
             mStackPath.add(mDirCurrent);
-            setCurrentDirectory(file.getPath() + File.separator);
+            setCurrentDirectory(entry.file.getPath() + File.separator);
         } else {
-            onFileSelected(file.getPath());
+            onFileSelected(entry.file.getPath());
         }
     }
 
+    @Override
+    protected void onDestroy() {
+        mListGeneration++; // Stop listing
+        stopObserving();
+        super.onDestroy();
+    }
+
     @Override
     public void onBackPressed() {
         String path = getLastDirectory();
@@ -220,7 +365,7 @@ public class FilePickerActivity extends ListActivity {
 
     public void setCurrentDirectory(String path) {
         mDirCurrent = path;
-        mAdapter.setTargetDirectory(path);
+        startListing(path);
         getListView().smoothScrollBy(0, 0); // Stop momentum scrolling
         onCurrentDirectoryChanged(path);
     }
@@ -229,6 +374,31 @@ public class FilePickerActivity extends ListActivity {
         ;
     }
 
+    public void onListingStateChanged(boolean isLoading) {
+        ;
+    }
+
+    public void onBindFileIcon(ImageView imageView, FileEntry entry) {
+        if (entry == null) {
+            imageView.setImageResource(mResIdNew); // New file entry
+        } else {
+            imageView.setImageResource(entry.isDirectory ? mResIdDir : mResIdFile);
+        }
+    }
+
+    public void setEntryFilter(EntryFilter filter) {
+        mFilter = filter;
+        mAdapter.applyFilter();
+    }
+
+    public void refreshEntryFilter() {
+        mAdapter.applyFilter();
+    }
+
+    public boolean isListing() {
+        return (mListingThread != null);
+    }
+
     public void onFileSelected(String path) {
         setResultAndFinish(path);
     }
@@ -289,6 +459,67 @@ public class FilePickerActivity extends ListActivity {
         return (index >= 0) ? mDirCurrent.substring(0, index + 1) : null;
     }
 
+    private void startListing(String path) {
+        mListGeneration++;
+        mListingThread = null;
+        startObserving(path);
+        ArrayList<FileEntry> entries = getCache(path);
+        if (entries != null) {
+            mAdapter.setEntries(entries);
+            onListingStateChanged(false);
+            return;
+        }
+        mAdapter.clearEntries();
+        mListingThread = new ListingThread(path, mListGeneration);
+        mListingThread.start();
+        onListingStateChanged(true);
+    }
+
+    private String getCacheKey(String path) {
+        return (mExtension == null) ? path : path.concat(File.pathSeparator).concat(mExtension);
+    }
+
+    private ArrayList<FileEntry> getCache(String path) {
+        long lastModified = new File(path).lastModified();
+        synchronized (sListingCache) {
+            Listing listing = sListingCache.get(getCacheKey(path));
+            if (listing == null || listing.lastModified != lastModified || lastModified == 0) {
+                return null;
+            }
+            return listing.entries;
+        }
+    }
+
+    private void putCache(String path, long lastModified, ArrayList<FileEntry> entries) {
+        /*  A change within the time stamp resolution may not update it  */
+        if (System.currentTimeMillis() - lastModified < MSEC_MTIME_GRANULARITY) {
+            return;
+        }
+        synchronized (sListingCache) {
+            sListingCache.put(getCacheKey(path), new Listing(lastModified, entries));
+        }
+    }
+
+    private void startObserving(final String path) {
+        stopObserving();
+        mObserver = new FileObserver(path, OBSERVE_EVENTS) {
+            @Override
+            public void onEvent(int event, String name) {
+                synchronized (sListingCache) {
+                    sListingCache.remove(getCacheKey(path));
+                }
+            }
+        };
+        mObserver.startWatching();
+    }
+
+    private void stopObserving() {
+        if (mObserver != null) {
+            mObserver.stopWatching();
+            mObserver = null;
+        }
+    }
+
     public void setResultAndFinish(String path) {
         Intent intent = new Intent();
         intent.putExtra(INTENT_EXTRA_SELECTPATH, path);
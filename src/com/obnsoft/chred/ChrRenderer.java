@@ -0,0 +1,36 @@
+/*
+ * Copyright (C) 2013 OBN-soft
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.obnsoft.chred;
+
+import android.graphics.Bitmap;
+
+public class ChrRenderer {
+
+    public static void drawTarget(ChrData chrData, Bitmap bmp, int idx, int pal) {
+        drawTarget(chrData, bmp, idx, pal, 0, 0);
+    }
+
+    public static void drawTarget(ChrData chrData, Bitmap bmp, int idx, int pal, int x, int y) {
+        if (bmp == null) return;
+        int w = chrData.getTargetSizeH() * ChrData.UNIT_SIZE;
+        int h = chrData.getTargetSizeV() * ChrData.UNIT_SIZE;
+        int[] pixels = new int[w * h];
+        chrData.drawTarget(pixels, w, idx, pal);
+        bmp.setPixels(pixels, 0, w, x, y, w, h);
+    }
+
+}
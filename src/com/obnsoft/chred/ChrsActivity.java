@@ -282,7 +282,7 @@ public class ChrsActivity extends Activity implements OnItemSelectedListener {
         }
         mBitmap = Bitmap.createBitmap(mChrWidth, mChrHeight * mChrCount, Bitmap.Config.ARGB_8888);
         for (int i = 0; i < mChrCount; i++) {
-            chrData.drawTarget(mBitmap, i * mChrStep, mApp.mPalIdx, 0, i * mChrHeight);
+            ChrRenderer.drawTarget(chrData, mBitmap, i * mChrStep, mApp.mPalIdx, 0, i * mChrHeight);
         }
 
         mApp.mChrIdx &= ~(mChrStep - 1);
@@ -143,7 +143,7 @@ public class EditActivity extends Activity
         int vUnits = chrData.getTargetSizeV();
         mBitmap = Bitmap.createBitmap(hUnits * ChrData.UNIT_SIZE,
                 vUnits * ChrData.UNIT_SIZE, Bitmap.Config.ARGB_8888);
-        chrData.drawTarget(mBitmap, mApp.mChrIdx, mApp.mPalIdx);
+        ChrRenderer.drawTarget(chrData, mBitmap, mApp.mChrIdx, mApp.mPalIdx);
         mMagView.setBitmap(mBitmap);
         mPreView.setBitmap(mBitmap);
         mIdxText.setText(String.format("%d\n(%dx%d)", mApp.mChrIdx, vUnits, hUnits));
@@ -201,7 +201,7 @@ public class EditActivity extends Activity
         Spinner spinner = (Spinner) parent;
         if (spinner == mPalSpinner) {
             mApp.mPalIdx = spinner.getSelectedItemPosition();
-            mApp.mChrData.drawTarget(mBitmap, mApp.mChrIdx, mApp.mPalIdx);
+            ChrRenderer.drawTarget(mApp.mChrData, mBitmap, mApp.mChrIdx, mApp.mPalIdx);
             mMagView.invalidate();
             mPreView.invalidate();
             setButtonsStatus();
@@ -0,0 +1,173 @@
+/*
+ * Copyright (C) 2013 OBN-soft
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package com.obnsoft.chred;
+
+import com.obnsoft.view.MagnifyView;
+
+import android.app.Activity;
+import android.app.AlertDialog;
+import android.graphics.Bitmap;
+import android.graphics.Color;
+import android.graphics.Rect;
+import android.os.Bundle;
+import android.view.View;
+import android.view.View.OnClickListener;
+import android.widget.AdapterView;
+import android.widget.AdapterView.OnItemSelectedListener;
+import android.widget.Spinner;
+import android.widget.ToggleButton;
+
+public class GrpActivity extends Activity
+        implements MagnifyView.EventHandler, OnItemSelectedListener {
+
+    private int mPalIdx;
+    private int mColIdx;
+    private Bitmap mBitmap;
+    private Rect mDirtyRect = new Rect();
+    private GrpRenderer mRenderer = new GrpRenderer();
+
+    private MyApplication mApp;
+    private MagnifyView mMagView;
+    private Spinner mPalSpinner;
+    private ToggleButton mMoveBtn;
+    private ColorView mColView;
+
+    /*-----------------------------------------------------------------------*/
+
+    @Override
+    public void onCreate(Bundle savedInstanceState) {
+        super.onCreate(savedInstanceState);
+        mApp = (MyApplication) getApplication();
+        if (mApp.mGrpData == null) {
+            finish();
+            return;
+        }
+        setContentView(R.layout.grp);
+
+        mMagView = (MagnifyView) findViewById(R.id.view_grp);
+        int unit = Utils.dp2px(this, 1);
+        mMagView.setScrollable(true);
+        mMagView.setScaleRange(unit, unit * 16);
+        mMagView.setGridColor(Color.GRAY, true);
+
+        mPalSpinner = (Spinner) findViewById(R.id.spin_palette);
+        mPalSpinner.setAdapter(mApp.mPalAdapter);
+        mPalSpinner.setOnItemSelectedListener(this);
+        mMoveBtn = (ToggleButton) findViewById(R.id.btn_move);
+        mColView = (ColorView) findViewById(R.id.btn_color);
+
+        /*  The page is kept while the activity lives, and only dirty tiles are redrawn  */
+        mBitmap = Bitmap.createBitmap(GrpData.WIDTH, GrpData.HEIGHT, Bitmap.Config.ARGB_8888);
+        mMagView.setBitmap(mBitmap);
+    }
+
+    @Override
+    protected void onResume() {
+        mPalSpinner.setSelection(mPalIdx);
+        mRenderer.setColData(mApp.mColData);
+        mApp.mGrpData.markAllTilesDirty();
+        mRenderer.drawDirtyTiles(mApp.mGrpData, mBitmap, mDirtyRect);
+        mMagView.invalidate();
+        setButtonsStatus();
+        super.onResume();
+    }
+
+    @Override
+    protected void onDestroy() {
+        super.onDestroy();
+        if (mBitmap != null) {
+            mMagView.setBitmap(null);
+            mBitmap.recycle();
+            mBitmap = null;
+        }
+    }
+
+    @Override
+    public void finish() {
+        /*  Let the caller export the page if it was modified  */
+        GrpData grpData = mApp.mGrpData;
+        setResult((grpData != null && grpData.getDirty()) ? RESULT_OK : RESULT_CANCELED);
+        super.finish();
+    }
+
+    /*-----------------------------------------------------------------------*/
+
+    @Override
+    public boolean onTouchEventUnit(int action, float x, float y, float[] histCoords) {
+        GrpData grpData = mApp.mGrpData;
+        int c = mPalIdx * ColData.COLS_PER_PAL + mColIdx;
+        grpData.setDot((int) x, (int) y, c);
+        if (histCoords != null) {
+            int count = histCoords.length / 2;
+            for (int i = 0; i < count; i++) {
+                grpData.setDot((int) histCoords[i * 2], (int) histCoords[i * 2 + 1], c);
+            }
+        }
+        if (mRenderer.drawDirtyTiles(grpData, mBitmap, mDirtyRect)) {
+            mMagView.invalidateUnit(mDirtyRect.left, mDirtyRect.top,
+                    mDirtyRect.right - 1, mDirtyRect.bottom - 1);
+        }
+        return true;
+    }
+
+    @Override
+    public void onItemSelected(AdapterView<?> parent, View view, int pos, long id) {
+        mPalIdx = pos;
+        setButtonsStatus();
+    }
+
+    @Override
+    public void onNothingSelected(AdapterView<?> parent) {
+        // Do nothing
+    }
+
+    /*-----------------------------------------------------------------------*/
+
+    public void onClickMoveButton(View v) {
+        setButtonsStatus();
+    }
+
+    public void onClickColorButton(View v) {
+        PaletteView palView = new PaletteView(this, null);
+        palView.setPalette(mApp.mColData, mPalIdx);
+        palView.setSelection(mColIdx);
+        final AlertDialog dlg = new AlertDialog.Builder(this)
+                .setView(palView)
+                .setNegativeButton(android.R.string.cancel, null)
+                .create();
+        palView.setOnClickListener(new OnClickListener() {
+            @Override
+            public void onClick(View view) {
+                mColIdx = ((ColorView) view).getIndex();
+                mMoveBtn.setChecked(false);
+                setButtonsStatus();
+                dlg.dismiss();
+            }
+        });
+        dlg.show();
+    }
+
+    /*-----------------------------------------------------------------------*/
+
+    private void setButtonsStatus() {
+        mMagView.setEventHandler(mMoveBtn.isChecked() ? null : this);
+        mColView.setIndex(mColIdx);
+        mColView.setColor(mApp.mColData.getColor(mPalIdx, mColIdx));
+    }
+
+}
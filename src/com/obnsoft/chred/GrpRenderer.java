@@ -0,0 +1,56 @@
+/*
+ * Copyright (C) 2013 OBN-soft
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package com.obnsoft.chred;
+
+import android.graphics.Bitmap;
+import android.graphics.Rect;
+
+public class GrpRenderer {
+
+    private int[] mPixels = new int[GrpData.WIDTH * GrpData.HEIGHT];
+    private int[] mColors = new int[ColData.MAX_PALS * ColData.COLS_PER_PAL];
+
+    /*-----------------------------------------------------------------------*/
+
+    public void setColData(ColData colData) {
+        for (int i = 0; i < mColors.length; i++) {
+            mColors[i] = colData.getColor(i / ColData.COLS_PER_PAL, i % ColData.COLS_PER_PAL);
+        }
+    }
+
+    public boolean drawDirtyTiles(GrpData grpData, Bitmap bmp, Rect outRect) {
+        outRect.setEmpty();
+        int unit = GrpData.UNIT_SIZE;
+        int stride = GrpData.WIDTH;
+        for (int ty = 0; ty < GrpData.TILES_V; ty++) {
+            int bits;
+            while ((bits = grpData.getDirtyTiles(ty)) != 0) {
+                /*  Draw each run of dirty tiles and transfer it at once  */
+                int tx = Integer.numberOfTrailingZeros(bits);
+                int len = Integer.numberOfTrailingZeros(~(bits >>> tx));
+                grpData.drawTiles(mPixels, stride, mColors, tx, ty, len);
+                int x = tx * unit;
+                int y = ty * unit;
+                bmp.setPixels(mPixels, y * stride + x, stride, x, y, len * unit, unit);
+                outRect.union(x, y, x + len * unit, y + unit);
+            }
+        }
+        return !outRect.isEmpty();
+    }
+
+}
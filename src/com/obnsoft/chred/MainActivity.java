@@ -16,14 +16,16 @@
 
 package com.obnsoft.chred;
 
+import java.io.BufferedReader;
 import java.io.File;
 import java.io.FileInputStream;
 import java.io.FileNotFoundException;
 import java.io.FileOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
+import java.io.InputStreamReader;
 import java.io.OutputStream;
-import java.io.OutputStreamWriter;
+import java.io.Writer;
 import java.text.SimpleDateFormat;
 import java.util.Date;
 import java.util.Locale;
@@ -57,7 +59,9 @@ public class MainActivity extends TabActivity {
     private static final int REQUEST_ID_IMPORT_FILE = 1;
     private static final int REQUEST_ID_IMPORT_GALLERY = 2;
     private static final int REQUEST_ID_IMPORT_CAMERA = 3;
+    private static final int REQUEST_ID_IMPORT_TEXT = 4;
     private static final int REQUEST_ID_EXPORT_PTC = 10;
+    private static final int REQUEST_ID_EDIT_GRP = 20;
     //private static final int REQUEST_ID_EXPORT_QR = 11;
     //private static final int REQUEST_ID_EXPORT_TEXT = 12;
 
@@ -65,6 +69,7 @@ public class MainActivity extends TabActivity {
 
     private MyApplication mApp;
     private PTCFile mWorkPTC;
+    private PTCFile mGrpPTC;    // edited GRP being exported
 
     /*-----------------------------------------------------------------------*/
 
@@ -73,12 +78,25 @@ public class MainActivity extends TabActivity {
         super.onCreate(savedInstanceState);
         setContentView(R.layout.main);
         mApp = (MyApplication) getApplication();
+        mApp.runWhenDataReady(new Runnable() {
+            @Override
+            public void run() {
+                if (!isFinishing()) {
+                    setupTabs();
+                }
+            }
+        });
+    }
+
+    private void setupTabs() {
+        findViewById(R.id.main_loading).setVisibility(View.GONE);
         myAddTab(TABTAG_TARGET, R.string.target, R.drawable.ic_tab_chr,    ChrsActivity.class);
         myAddTab(TABTAG_EDIT,   R.string.edit,   R.drawable.ic_tab_edit,   EditActivity.class);
         myAddTab(TABTAG_PALETTE,R.string.palette,R.drawable.ic_tab_palette,PaletteActivity.class);
         if (mApp.mCurTab != null) {
             getTabHost().setCurrentTabByTag(mApp.mCurTab);
         }
+        mApp.addStartupSplit("setup tabs", true);
     }
 
     private void myAddTab(String tag, int mesId, int iconId, Class<?> cls) {
@@ -93,10 +111,11 @@ public class MainActivity extends TabActivity {
     @Override
     protected void onPause() {
         super.onPause();
-        mApp.mCurTab = getTabHost().getCurrentTabTag();
-        mApp.saveData();
-        mApp.removeOldFiles(MyFilePickerActivity.DEFAULT_DIR_QR, ".png");
-        mApp.removeOldFiles(MyFilePickerActivity.DEFAULT_DIR_TEXT, ".txt");
+        if (mApp.isDataReady()) {
+            mApp.mCurTab = getTabHost().getCurrentTabTag();
+            mApp.saveData();
+        }
+        mApp.cleanOldFilesIfNeeded();
     }
 
     /*-----------------------------------------------------------------------*/
@@ -108,6 +127,11 @@ public class MainActivity extends TabActivity {
         return true;
     }
 
+    @Override
+    public boolean onPrepareOptionsMenu(Menu menu) {
+        return mApp.isDataReady();
+    }
+
     @Override
     public boolean onOptionsItemSelected(MenuItem item) {
         int menuId = item.getItemId();
@@ -126,6 +150,9 @@ public class MainActivity extends TabActivity {
         case R.id.menu_import_preset:
             selectPresetToImport();
             return true;
+        case R.id.menu_import_text:
+            requestTextToImport();
+            return true;
         case R.id.menu_export_chr:
             requestFileToExport(
                     new PTCFile(null, PTCFile.PTC_TYPE_CHR, mApp.mChrData.serialize()));
@@ -142,6 +169,12 @@ public class MainActivity extends TabActivity {
             confirmExportToQRCodes(
                     new PTCFile(null, PTCFile.PTC_TYPE_COL, mApp.mColData.serialize()));
             return true;
+        case R.id.menu_bank_switch:
+            selectBankToSwitch();
+            return true;
+        case R.id.menu_bank_copy:
+            selectBankToCopy();
+            return true;
         case R.id.menu_version:
             startActivity(new Intent(this, SettingActivity.class));
             return true;
@@ -150,7 +183,18 @@ public class MainActivity extends TabActivity {
     }
 
     @Override
-    protected void onActivityResult(int requestCode, int resultCode, Intent data) {
+    protected void onActivityResult(
+            final int requestCode, final int resultCode, final Intent data) {
+        /*  Imported data must not be overwritten by loading at startup  */
+        mApp.runWhenDataReady(new Runnable() {
+            @Override
+            public void run() {
+                handleActivityResult(requestCode, resultCode, data);
+            }
+        });
+    }
+
+    private void handleActivityResult(int requestCode, int resultCode, Intent data) {
         switch (requestCode) {
         case REQUEST_ID_IMPORT_FILE:
             if (resultCode == RESULT_OK) {
@@ -158,6 +202,12 @@ public class MainActivity extends TabActivity {
                         data.getStringExtra(MyFilePickerActivity.INTENT_EXTRA_SELECTPATH));
             }
             break;
+        case REQUEST_ID_IMPORT_TEXT:
+            if (resultCode == RESULT_OK) {
+                executeImportFromText(
+                        data.getStringExtra(MyFilePickerActivity.INTENT_EXTRA_SELECTPATH));
+            }
+            break;
         case REQUEST_ID_IMPORT_GALLERY:
         case REQUEST_ID_IMPORT_CAMERA:
             if (resultCode == RESULT_OK) {
@@ -173,6 +223,15 @@ public class MainActivity extends TabActivity {
                         data.getStringExtra(MyFilePickerActivity.INTENT_EXTRA_SELECTPATH));
             } else if (mWorkPTC != null) {
                 mWorkPTC = null;
+                confirmUnsavedGrp();
+            }
+            break;
+        case REQUEST_ID_EDIT_GRP:
+            if (resultCode == RESULT_OK && mApp.mGrpData != null) {
+                /*  Keep dirty until it is saved  */
+                mGrpPTC = new PTCFile(mApp.mGrpName,
+                        PTCFile.PTC_TYPE_GRP, mApp.mGrpData.serialize());
+                requestFileToExport(mGrpPTC);
             }
             break;
         }
@@ -197,6 +256,58 @@ public class MainActivity extends TabActivity {
         }
     }
 
+    private void requestTextToImport() {
+        final Intent intent = new Intent(this, MyFilePickerActivity.class);
+        intent.putExtra(MyFilePickerActivity.INTENT_EXTRA_TITLEID, R.string.title_import_text);
+        intent.putExtra(MyFilePickerActivity.INTENT_EXTRA_DIRECTORY,
+                MyFilePickerActivity.DEFAULT_DIR_TEXT);
+        intent.putExtra(MyFilePickerActivity.INTENT_EXTRA_EXTENSION, MyApplication.FNAMEEXT_TXT);
+        startActivityForResult(intent, REQUEST_ID_IMPORT_TEXT);
+    }
+
+    private void executeImportFromText(String path) {
+        PrgEncoder encoder = new PrgEncoder();
+        byte[] data = null;
+        try {
+            BufferedReader in = new BufferedReader(
+                    new InputStreamReader(new FileInputStream(path), "UTF-8"));
+            try {
+                data = encoder.encode(in);
+            } finally {
+                in.close();
+            }
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+        if (data == null) {
+            Utils.showToast(this, R.string.msg_error);
+            return;
+        }
+
+        /*  Offer both of PTC file and QR codes at once  */
+        final PTCFile ptcfile = new PTCFile(encoder.getName(), PTCFile.PTC_TYPE_PRG, data);
+        String msg = String.format(getString(R.string.msg_convprg),
+                MyFilePickerActivity.getFilename(path), data.length - 24);
+        if (encoder.getUnmappedCount() > 0) {
+            msg = msg.concat(PTCUtils.LF).concat(String.format(
+                    getString(R.string.msg_unmapped), encoder.getUnmappedCount()));
+        }
+        OnClickListener ptLsn = new OnClickListener() {
+            @Override
+            public void onClick(DialogInterface dialog, int which) {
+                requestFileToExport(ptcfile);
+            }
+        };
+        OnClickListener qrLsn = new OnClickListener() {
+            @Override
+            public void onClick(DialogInterface dialog, int which) {
+                confirmExportToQRCodes(ptcfile);
+            }
+        };
+        Utils.show3ButtonsDialog(this, R.drawable.ic_import, R.string.menu_import, msg,
+                R.string.dismiss, R.string.toptc, R.string.toqr, ptLsn, qrLsn);
+    }
+
     private void selectPresetToImport() {
         OnClickListener cl = new OnClickListener() {
             public void onClick(DialogInterface dialog, int which) {
@@ -220,6 +331,58 @@ public class MainActivity extends TabActivity {
                 .show();
     }
 
+    private void selectBankToSwitch() {
+        final String[] names = Workspace.BANK_NAMES;
+        OnClickListener cl = new OnClickListener() {
+            public void onClick(DialogInterface dialog, final int which) {
+                dialog.dismiss();
+                mApp.switchBank(names[which], new Runnable() {
+                    @Override
+                    public void run() {
+                        refreshActivity();
+                        String msg = String.format(getString(R.string.msg_switchbank),
+                                names[which]);
+                        Utils.showToast(MainActivity.this, msg);
+                    }
+                });
+            }
+        };
+        new AlertDialog.Builder(this)
+                .setTitle(R.string.menu_bank_switch)
+                .setSingleChoiceItems(names,
+                        Workspace.getBankIndex(mApp.mWorkspace.getCurrentName()), cl)
+                .show();
+    }
+
+    private void selectBankToCopy() {
+        /*  Same position and size as current target  */
+        final String[] names = Workspace.BANK_NAMES;
+        OnClickListener cl = new OnClickListener() {
+            public void onClick(DialogInterface dialog, final int which) {
+                mApp.mWorkspace.runWhenBankReady(names[which], new Runnable() {
+                    @Override
+                    public void run() {
+                        copyChrsFromBank(names[which]);
+                    }
+                });
+            }
+        };
+        new AlertDialog.Builder(this)
+                .setTitle(R.string.menu_bank_copy)
+                .setItems(names, cl)
+                .show();
+    }
+
+    private void copyChrsFromBank(String name) {
+        ChrData chrData = mApp.mChrData;
+        int len = chrData.getTargetSizeH() * chrData.getTargetSizeV();
+        if (mApp.mWorkspace.copyChrs(name, mApp.mChrIdx, mApp.mChrIdx, len)) {
+            refreshActivity();
+            String msg = String.format(getString(R.string.msg_copybank), name);
+            Utils.showToast(this, msg);
+        }
+    }
+
     private void confirmImportFromStream(InputStream in) {
         boolean ret = false;
         try {
@@ -273,6 +436,24 @@ public class MainActivity extends TabActivity {
                 Utils.showToast(MainActivity.this, msg);
             }
         };
+        OnClickListener grLsn = new OnClickListener() {
+            @Override
+            public void onClick(DialogInterface dialog, int which) {
+                executeOpenGrp(ptcfile);
+            }
+        };
+        OnClickListener scLsn = new OnClickListener() {
+            @Override
+            public void onClick(DialogInterface dialog, int which) {
+                executeOpenScr(ptcfile);
+            }
+        };
+        OnClickListener meLsn = new OnClickListener() {
+            @Override
+            public void onClick(DialogInterface dialog, int which) {
+                executeOpenMem(ptcfile);
+            }
+        };
         OnClickListener trLsn = new OnClickListener() {
             @Override
             public void onClick(DialogInterface dialog, int which) {
@@ -283,6 +464,18 @@ public class MainActivity extends TabActivity {
             String msg = String.format(getString(R.string.msg_import), pname);
             Utils.show3ButtonsDialog(this, R.drawable.ic_import, R.string.menu_import, msg,
                     android.R.string.no, exBtnId, android.R.string.yes, exLsn, imLsn);
+        } else if (type == PTCFile.PTC_TYPE_GRP) {
+            String msg = String.format(getString(R.string.msg_opengrp), pname);
+            Utils.show3ButtonsDialog(this, R.drawable.ic_import, R.string.menu_import, msg,
+                    android.R.string.no, exBtnId, android.R.string.yes, exLsn, grLsn);
+        } else if (type == PTCFile.PTC_TYPE_SCR) {
+            String msg = String.format(getString(R.string.msg_openscr), pname);
+            Utils.show3ButtonsDialog(this, R.drawable.ic_import, R.string.menu_import, msg,
+                    android.R.string.no, exBtnId, android.R.string.yes, exLsn, scLsn);
+        } else if (type == PTCFile.PTC_TYPE_MEM) {
+            String msg = String.format(getString(R.string.msg_openmem), pname);
+            Utils.show3ButtonsDialog(this, R.drawable.ic_import, R.string.menu_import, msg,
+                    android.R.string.no, exBtnId, android.R.string.yes, exLsn, meLsn);
         } else {
             String msg = String.format(getString(R.string.msg_notsupported), pname);
             if (type == PTCFile.PTC_TYPE_PRG) {
@@ -295,6 +488,39 @@ public class MainActivity extends TabActivity {
         }
     }
 
+    private void executeOpenGrp(PTCFile ptcfile) {
+        GrpData grpData = new GrpData();
+        if (grpData.deserialize(ptcfile.getData())) {
+            grpData.resetDirty();
+            mApp.mGrpData = grpData;
+            mApp.mGrpName = ptcfile.getName();
+            startActivityForResult(new Intent(this, GrpActivity.class), REQUEST_ID_EDIT_GRP);
+        } else {
+            Utils.showToast(this, R.string.msg_error);
+        }
+    }
+
+    private void executeOpenScr(PTCFile ptcfile) {
+        ScrData scrData = new ScrData();
+        if (scrData.deserialize(ptcfile.getData())) {
+            mApp.mScrData = scrData;
+            startActivity(new Intent(this, ScrActivity.class));
+        } else {
+            Utils.showToast(this, R.string.msg_error);
+        }
+    }
+
+    private void executeOpenMem(PTCFile ptcfile) {
+        MemData memData = new MemData();
+        if (memData.deserialize(ptcfile.getData())) {
+            mApp.mMemData = memData;
+            mApp.mMemName = ptcfile.getNameWithType();
+            startActivity(new Intent(this, MemActivity.class));
+        } else {
+            Utils.showToast(this, R.string.msg_error);
+        }
+    }
+
     private void requestFileToExport(PTCFile ptcfile) {
         if (ptcfile == null) return;
         String path = MyFilePickerActivity.DEFAULT_DIR
@@ -376,6 +602,40 @@ public class MainActivity extends TabActivity {
         if (!ret) {
             Utils.showToast(this, R.string.msg_error);
         }
+        if (mGrpPTC == ptcfile) {
+            if (ret) {
+                mGrpPTC = null;
+                mApp.mGrpData.resetDirty();
+            } else {
+                confirmUnsavedGrp();
+            }
+        }
+    }
+
+    private void confirmUnsavedGrp() {
+        /*  Edited page is still in mApp.mGrpData, so let the user decide  */
+        final PTCFile ptcfile = mGrpPTC;
+        mGrpPTC = null;
+        if (ptcfile == null || mApp.mGrpData == null) {
+            return;
+        }
+        OnClickListener edLsn = new OnClickListener() {
+            @Override
+            public void onClick(DialogInterface dialog, int which) {
+                startActivityForResult(new Intent(MainActivity.this, GrpActivity.class),
+                        REQUEST_ID_EDIT_GRP);
+            }
+        };
+        OnClickListener exLsn = new OnClickListener() {
+            @Override
+            public void onClick(DialogInterface dialog, int which) {
+                mGrpPTC = ptcfile;
+                requestFileToExport(ptcfile);
+            }
+        };
+        String msg = String.format(getString(R.string.msg_unsavedgrp), ptcfile.getNameWithType());
+        Utils.show3ButtonsDialog(this, R.drawable.ic_export, R.string.menu_export, msg,
+                R.string.discard, R.string.edit, R.string.menu_export, edLsn, exLsn);
     }
 
     private void confirmExportToQRCodes(final PTCFile ptcfile) {
@@ -408,7 +668,7 @@ public class MainActivity extends TabActivity {
         if (ptcfile != null) {
             String footer = "Generated by ".concat(getString(R.string.app_name))
                     .concat("  ").concat(Utils.getVersion(this));
-            bmp = ptcfile.generateQRCodes(mApp.mTightQr, footer);
+            bmp = QRSheetRenderer.generateQRCodes(ptcfile.compress(), mApp.mTightQr, footer);
         }
         if (bmp != null) {
             File dir = new File(MyFilePickerActivity.DEFAULT_DIR_QR);
@@ -441,54 +701,24 @@ public class MainActivity extends TabActivity {
         }
     }
 
-    private void executeExportToText(PTCFile ptcfile) {
-        boolean ret = false;
+    private void executeExportToText(final PTCFile ptcfile) {
+        String path = null;
         if (ptcfile != null && ptcfile.getType() == PTCFile.PTC_TYPE_PRG) {
-            String str = PrgData.convertToString(ptcfile, mApp.mFullCharset);
-            if (str != null) {
-                File dir = new File(MyFilePickerActivity.DEFAULT_DIR_TEXT);
-                if (!dir.exists()) {
-                    dir.mkdirs();
+            TextExporter.Body body = new TextExporter.Body() {
+                @Override
+                public boolean writeBody(Writer out) throws IOException {
+                    return PrgData.writeText(ptcfile, out, mApp.mFullCharset);
                 }
-                SimpleDateFormat fmt =
-                        new SimpleDateFormat("'_code_'yyMMdd'-'HHmmss'.txt'", Locale.US);
-                String path = MyFilePickerActivity.DEFAULT_DIR_TEXT
-                        .concat(ptcfile.getName().toLowerCase(Locale.US))
-                        .concat(fmt.format(new Date()));
-                StringBuffer buf = new StringBuffer();
-                buf.append(ptcfile.getNameWithType())
-                        .append(Utils.LF)
-                        .append("--------")
-                        .append(Utils.LF)
-                        .append(str)
-                        .append("--------")
-                        .append(Utils.LF)
-                        .append("Generated by ")
-                        .append(getString(R.string.app_name))
-                        .append("  ")
-                        .append(Utils.getVersion(this))
-                        .append(Utils.LF);
-                String text = buf.toString();
-                try {
-                    OutputStreamWriter writer =
-                            new OutputStreamWriter(new FileOutputStream(path), "UTF-8");
-                    writer.write(text);
-                    writer.close();
-                    ret = true;
-                } catch (FileNotFoundException e) {
-                    e.printStackTrace();
-                } catch (IOException e) {
-                    e.printStackTrace();
-                }
-                if (ret) {
-                    String msg = String.format(
-                            getString(R.string.msg_savetext), ptcfile.getNameWithType());
-                    Utils.showShareDialog(MainActivity.this, R.drawable.ic_export,
-                            R.string.menu_export, msg, path, text);
-                }
-            }
+            };
+            path = TextExporter.export(this, ptcfile.getNameWithType(),
+                    ptcfile.getName(), "code", body);
         }
-        if (!ret) {
+        if (path != null) {
+            String msg = String.format(
+                    getString(R.string.msg_savetext), ptcfile.getNameWithType());
+            Utils.showShareDialog(MainActivity.this, R.drawable.ic_export,
+                    R.string.menu_export, msg, path, null);
+        } else {
             Utils.showToast(this, R.string.msg_error);
         }
     }
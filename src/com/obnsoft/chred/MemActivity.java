@@ -0,0 +1,134 @@
+/*
+ * Copyright (C) 2013 OBN-soft
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package com.obnsoft.chred;
+
+import java.io.IOException;
+import java.io.Writer;
+
+import android.app.ListActivity;
+import android.graphics.Typeface;
+import android.os.Bundle;
+import android.view.Menu;
+import android.view.MenuItem;
+import android.view.View;
+import android.view.ViewGroup;
+import android.widget.BaseAdapter;
+import android.widget.TextView;
+
+public class MemActivity extends ListActivity {
+
+    private static final int CHARS_PER_ROW = 8;
+    private static final int MENU_ID_TOTEXT = 1;
+
+    private MyApplication mApp;
+
+    /*-----------------------------------------------------------------------*/
+
+    class MemAdapter extends BaseAdapter {
+        private char[] mChars = new char[CHARS_PER_ROW];
+        private StringBuilder mBuf = new StringBuilder();
+        @Override
+        public int getCount() {
+            return (mApp.mMemData.getLength() + CHARS_PER_ROW - 1) / CHARS_PER_ROW;
+        }
+        @Override
+        public Object getItem(int pos) {
+            return null;
+        }
+        @Override
+        public long getItemId(int pos) {
+            return pos;
+        }
+        @Override
+        public View getView(int pos, View convertView, ViewGroup parent) {
+            TextView textView = (TextView) convertView;
+            if (textView == null) {
+                textView = new TextView(MemActivity.this);
+                textView.setTypeface(Typeface.MONOSPACE);
+                int padding = Utils.dp2px(MemActivity.this, 4);
+                textView.setPadding(padding, padding, padding, padding);
+            }
+
+            /*  Decode only the row to be shown  */
+            MemData memData = mApp.mMemData;
+            int start = pos * CHARS_PER_ROW;
+            int count = memData.getChars(start, CHARS_PER_ROW, mChars, 0, mApp.mFullCharset);
+            mBuf.setLength(0);
+            mBuf.append(String.format("%03d:", start));
+            for (int i = 0; i < CHARS_PER_ROW; i++) {
+                mBuf.append((i < count) ? String.format(" %02X", memData.getCode(start + i))
+                        : "   ");
+            }
+            mBuf.append("  ").append(mChars, 0, count);
+            textView.setText(mBuf);
+            return textView;
+        }
+    }
+
+    /*-----------------------------------------------------------------------*/
+
+    @Override
+    public void onCreate(Bundle savedInstanceState) {
+        super.onCreate(savedInstanceState);
+        mApp = (MyApplication) getApplication();
+        if (mApp.mMemData == null) {
+            finish();
+            return;
+        }
+        setTitle(String.format("%s (%d)", mApp.mMemName, mApp.mMemData.getLength()));
+        setListAdapter(new MemAdapter());
+    }
+
+    @Override
+    public boolean onCreateOptionsMenu(Menu menu) {
+        menu.add(Menu.NONE, MENU_ID_TOTEXT, Menu.NONE, R.string.totext)
+                .setIcon(R.drawable.ic_export);
+        return true;
+    }
+
+    @Override
+    public boolean onOptionsItemSelected(MenuItem item) {
+        if (item.getItemId() == MENU_ID_TOTEXT) {
+            executeExportToText();
+            return true;
+        }
+        return false;
+    }
+
+    /*-----------------------------------------------------------------------*/
+
+    private void executeExportToText() {
+        TextExporter.Body body = new TextExporter.Body() {
+            @Override
+            public boolean writeBody(Writer out) throws IOException {
+                mApp.mMemData.writeText(out, mApp.mFullCharset);
+                return true;
+            }
+        };
+        String name = mApp.mMemName.substring(mApp.mMemName.indexOf(':') + 1);
+        String path = TextExporter.export(this, mApp.mMemName, name, "mem", body);
+        if (path != null) {
+            String msg = String.format(getString(R.string.msg_savetext), mApp.mMemName);
+            Utils.showShareDialog(this, R.drawable.ic_export,
+                    R.string.menu_export, msg, path, null);
+        } else {
+            Utils.showToast(this, R.string.msg_error);
+        }
+    }
+
+}
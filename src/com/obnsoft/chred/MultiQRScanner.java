@@ -0,0 +1,185 @@
+/*
+ * Copyright (C) 2013 OBN-soft
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.obnsoft.chred;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import jp.sourceforge.qrcode.QRCodeDecoder;
+
+import android.graphics.Bitmap;
+import android.graphics.Color;
+
+public class MultiQRScanner {
+
+    private static final int MAX_LOCATE_SIZE = 2048;
+
+    private Bitmap mBitmap;
+    private ExecutorService mExecutor;
+    private volatile boolean mCanceled;
+
+    /*-----------------------------------------------------------------------*/
+
+    class DecodeTask implements Callable<byte[]> {
+        private QRLocator.Area mArea;
+        public DecodeTask(QRLocator.Area area) {
+            mArea = area;
+        }
+        @Override
+        public byte[] call() {
+            if (mCanceled) {
+                return null;
+            }
+            int l = Math.max(mArea.x, 0);
+            int t = Math.max(mArea.y, 0);
+            int r = Math.min(mArea.x + mArea.w, mBitmap.getWidth());
+            int b = Math.min(mArea.y + mArea.h, mBitmap.getHeight());
+            if (l >= r || t >= b) {
+                return null;
+            }
+            int[] pixels = new int[(r - l) * (b - t)];
+            mBitmap.getPixels(pixels, 0, r - l, l, t, r - l, b - t);
+            QRImageBuffer image = new QRImageBuffer(pixels, r - l, b - t);
+            image.setTargetArea(0, 0, r - l, b - t);
+            return QRImageBuffer.decode(new QRCodeDecoder(), image);
+        }
+    }
+
+    /*-----------------------------------------------------------------------*/
+
+    public MultiQRScanner(Bitmap bitmap) {
+        mBitmap = bitmap;
+    }
+
+    public List<byte[]> scanAll() {
+        List<byte[]> results = new ArrayList<byte[]>();
+        int threads = Runtime.getRuntime().availableProcessors();
+        mExecutor = Executors.newFixedThreadPool(threads);
+        try {
+            QRLocator.AreaDecoder decoder = new QRLocator.AreaDecoder() {
+                @Override
+                public byte[] decode(QRLocator.Area area) {
+                    return new DecodeTask(area).call();
+                }
+            };
+            decodeAreas(QRLocator.locateByLayout(
+                    mBitmap.getWidth(), mBitmap.getHeight(), decoder), results);
+            if (results.isEmpty() && !mCanceled) {
+                decodeAreas(locateByFinderPatterns(), results);
+            }
+        } finally {
+            mExecutor.shutdownNow();
+        }
+
+        /*  Sort by sequence number and remove duplicates  */
+        Collections.sort(results, new Comparator<byte[]>() {
+            @Override
+            public int compare(byte[] a, byte[] b) {
+                return (a[2] & 0xFF) - (b[2] & 0xFF);
+            }
+        });
+        for (int i = results.size() - 1; i > 0; i--) {
+            if (results.get(i)[2] == results.get(i - 1)[2]) {
+                results.remove(i);
+            }
+        }
+        return results;
+    }
+
+    public void cancel() {
+        mCanceled = true;
+        ExecutorService executor = mExecutor;
+        if (executor != null) {
+            /*  Running tasks end soon by mCanceled, and waiting ones are canceled
+                so that scanAll() doesn't wait for them forever  */
+            for (Runnable task : executor.shutdownNow()) {
+                if (task instanceof Future) {
+                    ((Future<?>) task).cancel(false);
+                }
+            }
+        }
+    }
+
+    /*-----------------------------------------------------------------------*/
+
+    private void decodeAreas(List<QRLocator.Area> areas, List<byte[]> results) {
+        List<Future<byte[]>> futures = new ArrayList<Future<byte[]>>(areas.size());
+        for (QRLocator.Area area : areas) {
+            if (area.qrData != null) {
+                addResult(area.qrData, results);
+            } else {
+                futures.add(mExecutor.submit(new DecodeTask(area)));
+            }
+        }
+        for (Future<byte[]> future : futures) {
+            try {
+                addResult(future.get(), results);
+            } catch (InterruptedException e) {
+                mCanceled = true;
+                break;
+            } catch (CancellationException e) {
+                mCanceled = true;
+                break;
+            } catch (ExecutionException e) {
+                e.printStackTrace();
+            }
+        }
+    }
+
+    private void addResult(byte[] qrData, List<byte[]> results) {
+        if (qrData != null && qrData.length > 36 && qrData[0] == 'P' && qrData[1] == 'T') {
+            results.add(qrData);
+        }
+    }
+
+    private List<QRLocator.Area> locateByFinderPatterns() {
+        int width = mBitmap.getWidth();
+        int height = mBitmap.getHeight();
+        int skip = 1;
+        while (width / skip > MAX_LOCATE_SIZE || height / skip > MAX_LOCATE_SIZE) {
+            skip++;
+        }
+        int gw = width / skip;
+        int gh = height / skip;
+        byte[] gray = new byte[gw * gh];
+        int[] line = new int[width];
+        for (int y = 0; y < gh; y++) {
+            mBitmap.getPixels(line, 0, width, 0, y * skip, width, 1);
+            for (int x = 0; x < gw; x++) {
+                int c = line[x * skip];
+                gray[y * gw + x] = (byte) ((Color.red(c) + Color.green(c) * 2 + Color.blue(c)) / 4);
+            }
+        }
+        List<QRLocator.Area> areas = QRLocator.locateByFinderPatterns(gray, gw, gh);
+        for (QRLocator.Area area : areas) {
+            area.x *= skip;
+            area.y *= skip;
+            area.w *= skip;
+            area.h *= skip;
+        }
+        return areas;
+    }
+
+}
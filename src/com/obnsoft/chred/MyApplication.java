@@ -16,21 +16,30 @@
 
 package com.obnsoft.chred;
 
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
 import java.io.File;
+import java.io.FileInputStream;
 import java.io.FileNotFoundException;
+import java.io.FileOutputStream;
 import java.io.FilenameFilter;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
+import java.util.ArrayList;
 import java.util.Calendar;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
 
 import android.app.Application;
 import android.content.ContentResolver;
 import android.content.SharedPreferences;
-import android.content.res.AssetManager;
+import android.os.Handler;
 import android.preference.PreferenceManager;
 import android.provider.MediaStore;
 import android.util.Log;
+import android.util.TimingLogger;
 
 public class MyApplication extends Application {
 
@@ -39,9 +48,10 @@ public class MyApplication extends Application {
     public static final int ENAME_MODE_CONST = 2;
 
     public static final String FNAMEEXT_PTC = ".ptc";
+    public static final String FNAMEEXT_TXT = ".txt";
     public static final String FNAME_DEFAULT_CHR = "chara.ptc";
     public static final String FNAME_DEFAULT_COL = "palette.ptc";
-    public static final String ENAME_DEFAULT = "ANDROID";
+    public static final String ENAME_DEFAULT = PTCFile.ENAME_DEFAULT;
 
     public int mChrIdx;
     public int mPalIdx;
@@ -57,6 +67,13 @@ public class MyApplication extends Application {
     public ChrData mChrData;
     public ColData mColData;
     public PaletteAdapter mPalAdapter;
+    public PTCIndex mPtcIndex = new PTCIndex();
+    public Workspace mWorkspace;
+    public GrpData mGrpData;
+    public String mGrpName;
+    public ScrData mScrData;
+    public MemData mMemData;
+    public String mMemName;
 
     private static final String TAG = "CHRED";
 
@@ -64,6 +81,7 @@ public class MyApplication extends Application {
     private static final String PREF_KEY_PAL = "palette";
     private static final String PREF_KEY_COL = "color";
     private static final String PREF_KEY_TAB = "tab";
+    private static final String PREF_KEY_BANK = "bank";
     private static final String PREF_KEY_HUNITS = "h_units";
     private static final String PREF_KEY_VUNITS = "v_units";
     private static final String PREF_KEY_ENAME = "ename";
@@ -72,8 +90,83 @@ public class MyApplication extends Application {
     private static final String PREF_KEY_TIGHT = "tight";
     private static final String PREF_KEY_CHARSET = "text_charset";
     private static final String PREF_KEY_KEEPDAYS = "keep_days";
+    private static final String PREF_KEY_LASTCLEAN = "last_clean";
     private static final String ENAME_MODE_STRS[] = { "every", "guess", "const" };
     private static final String CHARSET_FULL = "full";
+    private static final String FNAMEEXT_TMP = ".tmp";
+    private static final String FNAME_PTCINDEX = "ptcindex.dat";
+    private static final long MSEC_CLEAN_INTERVAL = 24 * 60 * 60 * 1000L;
+    private static final int MAX_DELETE_ARGS = 500; // SQLite allows 999 arguments
+
+    private ExecutorService mSaveExecutor = Executors.newSingleThreadExecutor();
+    private SaveRequest mPendingSave;
+
+    private Handler mHandler = new Handler();
+    private DataLoader mChrLoader;
+    private DataLoader mColLoader;
+    private boolean mIsDataReady;
+    private List<Runnable> mReadyActions = new ArrayList<Runnable>();
+    private TimingLogger mStartupTiming;
+    private boolean mIsCleaning;
+    private boolean mPtcIndexLoaded;
+    private boolean mBankChanged;
+    private boolean mChrUnsaved;    // last write failed
+    private boolean mColUnsaved;
+
+    /*-----------------------------------------------------------------------*/
+
+    class SaveRequest {
+        public int chrIdx;
+        public int palIdx;
+        public int colIdx;
+        public String curTab;
+        public int hUnits;
+        public int vUnits;
+        public byte[] chrData;
+        public byte[] colData;
+        public String bankName; // Written after chrData
+    }
+
+    class DataLoader extends Thread {
+        private String mFileName;
+        private String mAssetName;
+        private int mType;
+        public byte[] data;
+        public long elapsed;
+        public volatile boolean done;
+        public DataLoader(String fileName, String assetName, int type) {
+            mFileName = fileName;
+            mAssetName = assetName;
+            mType = type;
+        }
+        @Override
+        public void run() {
+            long start = System.currentTimeMillis();
+            PTCFile ptcfile = new PTCFile();
+            try {
+                InputStream in;
+                try {
+                    in = openFileInput(mFileName);
+                } catch (FileNotFoundException e) {
+                    in = getResources().getAssets().open(mAssetName);
+                }
+                if (ptcfile.load(in) && ptcfile.getType() == mType) {
+                    data = ptcfile.getData();
+                }
+                in.close();
+            } catch (IOException e) {
+                e.printStackTrace();
+            }
+            elapsed = System.currentTimeMillis() - start;
+            done = true;
+            mHandler.post(new Runnable() {
+                @Override
+                public void run() {
+                    onDataLoaded();
+                }
+            });
+        }
+    }
 
     /*-----------------------------------------------------------------------*/
 
@@ -86,37 +179,13 @@ public class MyApplication extends Application {
         mChrData.setColData(mColData);
         mPalAdapter = new PaletteAdapter(this, mColData);
 
-        AssetManager as = getResources().getAssets();
-        InputStream in;
-        try {
-            PTCFile ptcfile = new PTCFile();
-            try {
-                in = openFileInput(FNAME_DEFAULT_CHR);
-            } catch (FileNotFoundException e) {
-                in = as.open("spu1.ptc");
-            }
-            if (ptcfile.load(in) && ptcfile.getType() == PTCFile.PTC_TYPE_CHR) {
-                mChrData.deserialize(ptcfile.getData());
-            } else {
-                Log.e(TAG, "Failed to load character.");
-            }
-            in.close();
-            try {
-                in = openFileInput(FNAME_DEFAULT_COL);
-            } catch (FileNotFoundException e) {
-                in = as.open("palette.ptc");
-            }
-            if (ptcfile.load(in) && ptcfile.getType() == PTCFile.PTC_TYPE_COL) {
-                mColData.deserialize(ptcfile.getData());
-            } else {
-                Log.e(TAG, "Failed to load palette.");
-            }
-            in.close();
-        } catch (IOException e) {
-            e.printStackTrace();
-        }
-        mChrData.resetDirty();
-        mColData.resetDirty();
+        /*  Load both files in parallel, models get ready in onDataLoaded()  */
+        mStartupTiming = new TimingLogger(TAG, "startup");
+        mChrLoader = new DataLoader(FNAME_DEFAULT_CHR, "spu1.ptc", PTCFile.PTC_TYPE_CHR);
+        mColLoader = new DataLoader(FNAME_DEFAULT_COL, "palette.ptc", PTCFile.PTC_TYPE_COL);
+        mChrLoader.start();
+        mColLoader.start();
+        mStartupTiming.addSplit("start loaders");
 
         SharedPreferences prefs = PreferenceManager.getDefaultSharedPreferences(this);
         mChrIdx = prefs.getInt(PREF_KEY_CHR, 0);
@@ -124,69 +193,151 @@ public class MyApplication extends Application {
         mColIdx = prefs.getInt(PREF_KEY_COL, 0);
         mCurTab = prefs.getString(PREF_KEY_TAB, null);
         mChrData.setTargetSize(prefs.getInt(PREF_KEY_HUNITS, 2), prefs.getInt(PREF_KEY_VUNITS, 2));
+        mWorkspace = new Workspace(this, mSaveExecutor,
+                prefs.getString(PREF_KEY_BANK, Workspace.BANK_DEFAULT), mChrData);
         getPrefsInSetting(prefs);
+        mStartupTiming.addSplit("read preferences");
+    }
+
+    @Override
+    public void onLowMemory() {
+        super.onLowMemory();
+        mWorkspace.trim(1);
+    }
+
+    public boolean isDataReady() {
+        return mIsDataReady;
+    }
+
+    public void runWhenDataReady(Runnable action) {
+        if (mIsDataReady) {
+            action.run();
+        } else {
+            mReadyActions.add(action);
+        }
+    }
+
+    public ExecutorService getSaveExecutor() {
+        return mSaveExecutor;
+    }
+
+    public void addStartupSplit(String label, boolean isLast) {
+        if (mStartupTiming != null) {
+            mStartupTiming.addSplit(label);
+            if (isLast) {
+                mStartupTiming.dumpToLog();
+                mStartupTiming = null;
+            }
+        }
     }
 
     public void saveData() {
-        SharedPreferences prefs = PreferenceManager.getDefaultSharedPreferences(this);
-        SharedPreferences.Editor editor = prefs.edit();
-        editor.putInt(PREF_KEY_CHR, mChrIdx);
-        editor.putInt(PREF_KEY_PAL, mPalIdx);
-        editor.putInt(PREF_KEY_COL, mColIdx);
-        editor.putString(PREF_KEY_TAB, mCurTab);
-        editor.putInt(PREF_KEY_HUNITS, mChrData.getTargetSizeH());
-        editor.putInt(PREF_KEY_VUNITS, mChrData.getTargetSizeV());
-        editor.commit();
+        if (!mIsDataReady) {
+            return; // Nothing has been changed yet
+        }
 
-        OutputStream out;
-        try {
-            if (mChrData.getDirty()) {
-                out = openFileOutput(FNAME_DEFAULT_CHR, MODE_PRIVATE);
-                if (!PTCFile.save(out, ENAME_DEFAULT, PTCFile.PTC_TYPE_CHR, mChrData.serialize())) {
-                    Log.e(TAG, "Failed to save character.");
+        /*  Take a snapshot on the UI thread and write it in background  */
+        SaveRequest req = new SaveRequest();
+        req.chrIdx = mChrIdx;
+        req.palIdx = mPalIdx;
+        req.colIdx = mColIdx;
+        req.curTab = mCurTab;
+        req.hUnits = mChrData.getTargetSizeH();
+        req.vUnits = mChrData.getTargetSizeV();
+        if (mChrData.getDirty() || mBankChanged || mChrUnsaved) {
+            req.chrData = mChrData.serialize();
+            mChrData.resetDirty();
+            mChrUnsaved = false;
+        }
+        if (mBankChanged) {
+            req.bankName = mWorkspace.getCurrentName();
+            mBankChanged = false;
+        }
+        if (mColData.getDirty() || mColUnsaved) {
+            req.colData = mColData.serialize();
+            mColData.resetDirty();
+            mColUnsaved = false;
+        }
+
+        synchronized (this) {
+            if (mPendingSave != null) {
+                /*  Coalesce with the request which hasn't been written yet  */
+                if (req.chrData == null) {
+                    req.chrData = mPendingSave.chrData;
                 }
-                out.close();
-                mChrData.resetDirty();
-            }
-            if (mColData.getDirty()) {
-                out = openFileOutput(FNAME_DEFAULT_COL, MODE_PRIVATE);
-                if (!PTCFile.save(out, ENAME_DEFAULT, PTCFile.PTC_TYPE_COL, mColData.serialize())) {
-                    Log.e(TAG, "Failed to save palette.");
+                if (req.colData == null) {
+                    req.colData = mPendingSave.colData;
                 }
-                out.close();
-                mColData.resetDirty();
+                if (req.bankName == null) {
+                    req.bankName = mPendingSave.bankName;
+                }
+                mPendingSave = req;
+                return;
             }
-        } catch (IOException e) {
-            e.printStackTrace();
+            mPendingSave = req;
         }
+        mSaveExecutor.execute(new Runnable() {
+            @Override
+            public void run() {
+                SaveRequest req;
+                synchronized (MyApplication.this) {
+                    req = mPendingSave;
+                    mPendingSave = null;
+                }
+                writeData(req);
+            }
+        });
     }
 
-    public void removeOldFiles(String path, final String suffix) {
-        if (path == null || suffix == null || mKeepDays == 0) {
+    public void switchBank(final String name, final Runnable action) {
+        if (!mIsDataReady || name.equals(mWorkspace.getCurrentName())) {
             return;
         }
-        File dir = new File(path);
-        File[] files = dir.listFiles(new FilenameFilter() {
+        mWorkspace.runWhenBankReady(name, new Runnable() {
             @Override
-            public boolean accept(File dir, String filename) {
-                return filename.endsWith(suffix);
+            public void run() {
+                if (!name.equals(mWorkspace.getCurrentName())) {
+                    mChrData = mWorkspace.switchTo(name);
+                    mBankChanged = true;
+                    saveData();
+                }
+                action.run();
             }
         });
+    }
+
+    public void cleanOldFilesIfNeeded() {
+        /*  At most once a day, in background  */
+        if (mKeepDays == 0 || mIsCleaning) {
+            return;
+        }
+        final SharedPreferences prefs = PreferenceManager.getDefaultSharedPreferences(this);
+        final long now = System.currentTimeMillis();
+        long lastTime = prefs.getLong(PREF_KEY_LASTCLEAN, 0);
+        if (now >= lastTime && now - lastTime < MSEC_CLEAN_INTERVAL) {
+            return;
+        }
         Calendar cal = Calendar.getInstance();
         cal.add(Calendar.DAY_OF_MONTH, -mKeepDays);
-        long limitTime = cal.getTimeInMillis();
-        if (files != null && files.length > 0) {
-            ContentResolver cr = getContentResolver();
-            final String where = MediaStore.Images.Media.DATA.concat("=?");
-            String[] arg = new String[1];
-            for (File file : files) {
-                if (file.lastModified() <= limitTime) {
-                    file.delete();
-                    arg[0] = file.getPath();
-                    cr.delete(MediaStore.Images.Media.EXTERNAL_CONTENT_URI, where, arg);
-                }
+        final long limitTime = cal.getTimeInMillis();
+        mIsCleaning = true;
+        new Thread(new Runnable() {
+            @Override
+            public void run() {
+                prefs.edit().putLong(PREF_KEY_LASTCLEAN, now).commit();
+                List<String> paths = new ArrayList<String>();
+                removeOldFiles(MyFilePickerActivity.DEFAULT_DIR_QR, ".png", limitTime, paths);
+                removeOldFiles(MyFilePickerActivity.DEFAULT_DIR_TEXT, FNAMEEXT_TXT,
+                        limitTime, paths);
+                removeFromMediaStore(paths);
+                mHandler.post(new Runnable() {
+                    @Override
+                    public void run() {
+                        mIsCleaning = false;
+                    }
+                });
             }
-        }
+        }).start();
     }
 
     public void getPrefsInSetting(SharedPreferences prefs) {
@@ -195,7 +346,184 @@ public class MyApplication extends Application {
         mEnameModeQr = getEnameModeVal(prefs.getString(PREF_KEY_ENAME_QR, "const"));
         mTightQr = prefs.getBoolean(PREF_KEY_TIGHT, false);
         mFullCharset = (prefs.getString(PREF_KEY_CHARSET, CHARSET_FULL).equals(CHARSET_FULL));
-        mKeepDays = Integer.parseInt(prefs.getString(PREF_KEY_KEEPDAYS, "0"));
+        int keepDays = Integer.parseInt(prefs.getString(PREF_KEY_KEEPDAYS, "0"));
+        if (keepDays < mKeepDays) {
+            prefs.edit().remove(PREF_KEY_LASTCLEAN).commit(); // Shortened, clean soon
+        }
+        mKeepDays = keepDays;
+    }
+
+    private void onDataLoaded() {
+        if (mIsDataReady || !mChrLoader.done || !mColLoader.done) {
+            return;
+        }
+        if (mChrLoader.data != null) {
+            mChrData.deserialize(mChrLoader.data);
+        } else {
+            Log.e(TAG, "Failed to load character.");
+        }
+        if (mColLoader.data != null) {
+            mColData.deserialize(mColLoader.data);
+        } else {
+            Log.e(TAG, "Failed to load palette.");
+        }
+        mChrData.resetDirty();
+        mColData.resetDirty();
+        mStartupTiming.addSplit(String.format("load (chr %dms, col %dms)",
+                mChrLoader.elapsed, mColLoader.elapsed));
+        mChrLoader = null;
+        mColLoader = null;
+        mIsDataReady = true;
+        for (Runnable action : mReadyActions) {
+            action.run();
+        }
+        mReadyActions.clear();
+    }
+
+    private void removeOldFiles(String path, final String suffix, long limitTime,
+            List<String> removedPaths) {
+        File dir = new File(path);
+        File[] files = dir.listFiles(new FilenameFilter() {
+            @Override
+            public boolean accept(File dir, String filename) {
+                return filename.endsWith(suffix);
+            }
+        });
+        if (files != null) {
+            for (File file : files) {
+                if (file.lastModified() <= limitTime && file.delete()) {
+                    removedPaths.add(file.getPath());
+                }
+            }
+        }
+    }
+
+    private void removeFromMediaStore(List<String> paths) {
+        ContentResolver cr = getContentResolver();
+        for (int i = 0; i < paths.size(); i += MAX_DELETE_ARGS) {
+            int count = Math.min(paths.size() - i, MAX_DELETE_ARGS);
+            StringBuffer where = new StringBuffer(MediaStore.Images.Media.DATA).append(" IN (");
+            String[] args = new String[count];
+            for (int j = 0; j < count; j++) {
+                where.append((j == 0) ? "?" : ",?");
+                args[j] = paths.get(i + j);
+            }
+            where.append(')');
+            cr.delete(MediaStore.Images.Media.EXTERNAL_CONTENT_URI, where.toString(), args);
+        }
+    }
+
+    private void writeData(final SaveRequest req) {
+        SharedPreferences prefs = PreferenceManager.getDefaultSharedPreferences(this);
+        SharedPreferences.Editor editor = prefs.edit();
+        editor.putInt(PREF_KEY_CHR, req.chrIdx);
+        editor.putInt(PREF_KEY_PAL, req.palIdx);
+        editor.putInt(PREF_KEY_COL, req.colIdx);
+        editor.putString(PREF_KEY_TAB, req.curTab);
+        editor.putInt(PREF_KEY_HUNITS, req.hUnits);
+        editor.putInt(PREF_KEY_VUNITS, req.vUnits);
+        editor.commit();
+
+        final boolean chrFailed = (req.chrData != null &&
+                !writeFileAtomically(FNAME_DEFAULT_CHR, PTCFile.PTC_TYPE_CHR, req.chrData));
+        if (chrFailed) {
+            Log.e(TAG, "Failed to save character.");
+        } else if (req.bankName != null) {
+            editor.putString(PREF_KEY_BANK, req.bankName); // Only after the data of bank
+            editor.commit();
+        }
+        final boolean colFailed = (req.colData != null &&
+                !writeFileAtomically(FNAME_DEFAULT_COL, PTCFile.PTC_TYPE_COL, req.colData));
+        if (colFailed) {
+            Log.e(TAG, "Failed to save palette.");
+        }
+
+        /*  Dirty flags were reset by the snapshot, so mark them again to retry  */
+        if (chrFailed || colFailed) {
+            mHandler.post(new Runnable() {
+                @Override
+                public void run() {
+                    if (chrFailed) {
+                        mChrUnsaved = true;
+                        mBankChanged |= (req.bankName != null);
+                    }
+                    if (colFailed) {
+                        mColUnsaved = true;
+                    }
+                }
+            });
+        }
+    }
+
+    boolean writeFileAtomically(String fileName, int type, byte[] data) {
+        /*  Previous file survives unless the new one is completely on the storage  */
+        File dir = getFilesDir(); // Created if needed
+        File file = new File(dir, fileName);
+        File tmpFile = new File(dir, fileName.concat(FNAMEEXT_TMP));
+        boolean ret = false;
+        try {
+            FileOutputStream out = new FileOutputStream(tmpFile);
+            try {
+                ret = PTCFile.save(out, ENAME_DEFAULT, type, data);
+                if (ret) {
+                    out.getFD().sync();
+                }
+            } finally {
+                out.close();
+            }
+        } catch (IOException e) {
+            e.printStackTrace();
+            ret = false;
+        }
+        if (ret) {
+            ret = tmpFile.renameTo(file);
+        }
+        if (!ret) {
+            tmpFile.delete();
+        }
+        return ret;
+    }
+
+    public int updatePTCIndex() {
+        /*  Call in background; index is a cache, so sync isn't needed  */
+        synchronized (mPtcIndex) {
+            File file = new File(getFilesDir(), FNAME_PTCINDEX);
+            if (!mPtcIndexLoaded) {
+                try {
+                    InputStream in = new BufferedInputStream(new FileInputStream(file));
+                    try {
+                        mPtcIndex.load(in);
+                    } finally {
+                        in.close();
+                    }
+                } catch (FileNotFoundException e) {
+                    // First time
+                } catch (IOException e) {
+                    e.printStackTrace();
+                }
+                mPtcIndexLoaded = true;
+            }
+            int count = mPtcIndex.update(new File(MyFilePickerActivity.DEFAULT_DIR));
+            if (mPtcIndex.isDirty()) {
+                File tmpFile = new File(file.getPath().concat(FNAMEEXT_TMP));
+                boolean ret = false;
+                try {
+                    OutputStream out = new BufferedOutputStream(new FileOutputStream(tmpFile));
+                    try {
+                        ret = mPtcIndex.save(out);
+                    } finally {
+                        out.close();
+                    }
+                } catch (IOException e) {
+                    e.printStackTrace();
+                    ret = false;
+                }
+                if (!ret || !tmpFile.renameTo(file)) {
+                    tmpFile.delete();
+                }
+            }
+            return count;
+        }
     }
 
     private int getEnameModeVal(String modeStr) {
@@ -17,15 +17,22 @@
 package com.obnsoft.chred;
 
 import java.io.File;
+import java.util.Locale;
 
 import android.content.DialogInterface;
 import android.content.Intent;
 import android.os.Bundle;
 import android.os.Environment;
 import android.text.InputType;
+import android.view.Menu;
+import android.view.MenuItem;
 import android.view.View;
+import android.view.Window;
+import android.widget.ArrayAdapter;
 import android.widget.EditText;
 import android.widget.ImageButton;
+import android.widget.ImageView;
+import android.widget.Spinner;
 import android.widget.TextView;
 
 import com.obnsoft.app.FilePickerActivity;
@@ -38,8 +45,37 @@ public class MyFilePickerActivity extends FilePickerActivity {
     public static final String DEFAULT_DIR_QR = DEFAULT_DIR.concat("QR/");
     public static final String DEFAULT_DIR_TEXT = DEFAULT_DIR.concat("text/");
 
+    private MyApplication mApp;
+    private PTCThumbnailLoader mThumbLoader;
+    private boolean mIndexing;
+    private int mFilterType = PTCFile.PTC_TYPE_UNKNOWN;
+    private String mFilterName;
+
+    /*-----------------------------------------------------------------------*/
+
+    class IndexFilter implements EntryFilter {
+        @Override
+        public boolean accept(FileEntry entry) {
+            /*  Judge by the index without opening files  */
+            if (entry.isDirectory) {
+                return true;
+            }
+            PTCIndex.Entry indexEntry = mApp.mPtcIndex.get(entry.file.getPath());
+            if (indexEntry == null || indexEntry.type == PTCFile.PTC_TYPE_UNKNOWN) {
+                return false;
+            }
+            if (mFilterType != PTCFile.PTC_TYPE_UNKNOWN && indexEntry.type != mFilterType) {
+                return false;
+            }
+            return (mFilterName == null || PTCIndex.matchName(indexEntry, mFilterName));
+        }
+    }
+
+    /*-----------------------------------------------------------------------*/
+
     @Override
     public void onCreate(Bundle savedInstanceState) {
+        requestWindowFeature(Window.FEATURE_INDETERMINATE_PROGRESS);
         setContentView(R.layout.file_picker);
         Intent intent = getIntent();
         if (intent != null) {
@@ -53,9 +89,40 @@ public class MyFilePickerActivity extends FilePickerActivity {
                 dir.mkdirs();
             }
         }
+        mApp = (MyApplication) getApplication();
+        int size = getResources().getDrawable(R.drawable.ic_file).getIntrinsicWidth();
+        mThumbLoader = new PTCThumbnailLoader(this, size, R.drawable.ic_file);
         super.onCreate(savedInstanceState);
         setResourceId(R.drawable.ic_folder, R.drawable.ic_file,
                 R.drawable.ic_newfile, R.string.msg_createfile);
+        if (isPtcMode()) {
+            startIndexing();
+        }
+    }
+
+    @Override
+    public boolean onCreateOptionsMenu(Menu menu) {
+        if (!isPtcMode()) {
+            return false;
+        }
+        getMenuInflater().inflate(R.menu.file_picker, menu);
+        return true;
+    }
+
+    @Override
+    public boolean onOptionsItemSelected(MenuItem item) {
+        switch (item.getItemId()) {
+        case R.id.menu_filter:
+            showFilterDialog();
+            return true;
+        }
+        return false;
+    }
+
+    @Override
+    protected void onDestroy() {
+        mThumbLoader.shutdown();
+        super.onDestroy();
     }
 
     @Override
@@ -69,6 +136,25 @@ public class MyFilePickerActivity extends FilePickerActivity {
         btn.setEnabled(getUpperDirectory() != null);
     }
 
+    @Override
+    public void onListingStateChanged(boolean isLoading) {
+        super.onListingStateChanged(isLoading);
+        setProgressBarIndeterminateVisibility(isLoading || mIndexing);
+        TextView tv = (TextView) findViewById(android.R.id.empty);
+        tv.setText(isLoading ? null : getText(R.string.msg_nofiles));
+    }
+
+    @Override
+    public void onBindFileIcon(ImageView imageView, FileEntry entry) {
+        if (entry != null && !entry.isDirectory &&
+                entry.name.toLowerCase().endsWith(MyApplication.FNAMEEXT_PTC)) {
+            mThumbLoader.load(imageView, entry.file);
+        } else {
+            mThumbLoader.cancel(imageView);
+            super.onBindFileIcon(imageView, entry);
+        }
+    }
+
     @Override
     public void onFileSelected(final String path) {
         if (isWriteMode()) {
@@ -115,6 +201,58 @@ public class MyFilePickerActivity extends FilePickerActivity {
                 R.string.msg_newfilename, editText, listener);
     }
 
+    private boolean isPtcMode() {
+        return MyApplication.FNAMEEXT_PTC.equals(getExtension());
+    }
+
+    private void startIndexing() {
+        mIndexing = true;
+        new Thread(new Runnable() {
+            @Override
+            public void run() {
+                mApp.updatePTCIndex();
+                runOnUiThread(new Runnable() {
+                    @Override
+                    public void run() {
+                        mIndexing = false;
+                        setProgressBarIndeterminateVisibility(isListing());
+                        refreshEntryFilter();
+                    }
+                });
+            }
+        }).start();
+    }
+
+    private void showFilterDialog() {
+        View view = View.inflate(this, R.layout.file_filter, null);
+        final Spinner spinner = (Spinner) view.findViewById(R.id.spinner_filter_type);
+        final EditText editText = (EditText) view.findViewById(R.id.edit_filter_name);
+        ArrayAdapter<String> adapter = new ArrayAdapter<String>(this,
+                android.R.layout.simple_spinner_item);
+        adapter.setDropDownViewResource(android.R.layout.simple_spinner_dropdown_item);
+        adapter.add(getString(R.string.filter_alltypes));
+        for (int type = 0; PTCFile.getPrefixFromType(type) != null; type++) {
+            adapter.add(PTCFile.getPrefixFromType(type));
+        }
+        spinner.setAdapter(adapter);
+        spinner.setSelection(mFilterType + 1);
+        editText.setText(mFilterName);
+        DialogInterface.OnClickListener listener = new DialogInterface.OnClickListener() {
+            @Override
+            public void onClick(DialogInterface dialog, int whichButton) {
+                String name = Utils.trimUni(editText.getText().toString());
+                mFilterType = spinner.getSelectedItemPosition() - 1;
+                mFilterName = (name.length() == 0) ? null : name.toUpperCase(Locale.US);
+                if (mFilterType == PTCFile.PTC_TYPE_UNKNOWN && mFilterName == null) {
+                    setEntryFilter(null);
+                } else {
+                    setEntryFilter(new IndexFilter());
+                }
+            }
+        };
+        Utils.showCustomDialog(this, R.drawable.ic_magnify, R.string.menu_filter, view, listener);
+    }
+
     public void onBackDirectory(View v) {
         onBackPressed();
     }
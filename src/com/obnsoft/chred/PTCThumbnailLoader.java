@@ -0,0 +1,342 @@
+/*
+ * Copyright (C) 2013 OBN-soft
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package com.obnsoft.chred;
+
+import java.io.BufferedInputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import android.content.Context;
+import android.graphics.Bitmap;
+import android.graphics.BitmapFactory;
+import android.graphics.Canvas;
+import android.graphics.Color;
+import android.graphics.Paint;
+import android.os.Handler;
+import android.widget.ImageView;
+
+public class PTCThumbnailLoader {
+
+    private static final int THREADS = 2;
+    private static final int MAX_MEMORY_THUMBS = 64;
+    private static final int MAX_DISK_THUMBS = 256;
+    private static final String DIRNAME_CACHE = "thumbs";
+    private static final String FNAMEEXT_PNG = ".png";
+    private static final int PRG_LINES = 5;
+
+    private int mSize;
+    private int mResIdDefault;
+    private boolean mFullCharset;
+    private ColData mColData;
+    private String mRenderKey; // null if thumbnails aren't rendered as usual
+    private File mCacheDir;
+    private Handler mHandler = new Handler();
+    private ExecutorService mExecutor;
+    private Map<ImageView, Future<?>> mPendings = new HashMap<ImageView, Future<?>>();
+    private LinkedHashMap<String, Thumb> mMemoryCache =
+            new LinkedHashMap<String, Thumb>(MAX_MEMORY_THUMBS, .75f, true) {
+        private static final long serialVersionUID = 1L;
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<String, Thumb> eldest) {
+            return size() > MAX_MEMORY_THUMBS;
+        }
+    };
+
+    /*-----------------------------------------------------------------------*/
+
+    static class Thumb {
+        public long length;
+        public long lastModified;
+        public Bitmap bitmap; // null if the file can't be previewed
+        public Thumb(long length, long lastModified, Bitmap bitmap) {
+            this.length = length;
+            this.lastModified = lastModified;
+            this.bitmap = bitmap;
+        }
+    }
+
+    class LoadTask implements Runnable {
+        private ImageView mView;
+        private String mPath;
+        public LoadTask(ImageView view, String path) {
+            mView = view;
+            mPath = path;
+        }
+        @Override
+        public void run() {
+            File file = new File(mPath);
+            long length = file.length();
+            long lastModified = file.lastModified();
+            synchronized (mMemoryCache) {
+                Thumb thumb = mMemoryCache.get(mPath);
+                if (thumb != null && thumb.length == length &&
+                        thumb.lastModified == lastModified) {
+                    return; // Already shown
+                }
+            }
+            /*  Thumbnails depend on the palette and the charset, and they may be
+                temporary ones until the application data is ready  */
+            File cacheFile = (mRenderKey == null) ? null :
+                    getCacheFile(mPath, length, lastModified);
+            Bitmap bitmap = (cacheFile == null) ? null :
+                    BitmapFactory.decodeFile(cacheFile.getPath());
+            if (bitmap == null && !Thread.currentThread().isInterrupted()) {
+                bitmap = createThumbnail(file);
+                if (bitmap != null && cacheFile != null) {
+                    writeCacheFile(cacheFile, bitmap);
+                }
+            }
+            final Thumb thumb = new Thumb(length, lastModified, bitmap);
+            synchronized (mMemoryCache) {
+                mMemoryCache.put(mPath, thumb);
+            }
+            mHandler.post(new Runnable() {
+                @Override
+                public void run() {
+                    if (mPath.equals(mView.getTag())) {
+                        mPendings.remove(mView);
+                        setThumbnail(mView, thumb);
+                    }
+                }
+            });
+        }
+    }
+
+    /*-----------------------------------------------------------------------*/
+
+    public PTCThumbnailLoader(Context context, int size, int resIdDefault) {
+        MyApplication app = (MyApplication) context.getApplicationContext();
+        mSize = size;
+        mResIdDefault = resIdDefault;
+        mFullCharset = app.mFullCharset;
+        mColData = new ColData();
+        if (app.isDataReady()) {
+            byte[] colBytes = app.mColData.serialize();
+            mColData.deserialize(colBytes);
+            mRenderKey = toHex(PTCUtils.getMD5(colBytes)) + (mFullCharset ? ":F" : ":H");
+        }
+        mCacheDir = new File(context.getCacheDir(), DIRNAME_CACHE);
+        mCacheDir.mkdirs();
+        mExecutor = Executors.newFixedThreadPool(THREADS);
+        mExecutor.execute(new Runnable() {
+            @Override
+            public void run() {
+                trimCacheFiles();
+            }
+        });
+    }
+
+    public void load(ImageView view, File file) {
+        cancel(view);
+        String path = file.getPath();
+        view.setTag(path);
+        synchronized (mMemoryCache) {
+            setThumbnail(view, mMemoryCache.get(path)); // Validated by the task
+        }
+        mPendings.put(view, mExecutor.submit(new LoadTask(view, path)));
+    }
+
+    public void cancel(ImageView view) {
+        view.setTag(null);
+        Future<?> future = mPendings.remove(view);
+        if (future != null) {
+            future.cancel(true);
+        }
+    }
+
+    public void shutdown() {
+        mExecutor.shutdownNow();
+        mPendings.clear();
+    }
+
+    /*-----------------------------------------------------------------------*/
+
+    private void setThumbnail(ImageView view, Thumb thumb) {
+        if (thumb == null || thumb.bitmap == null) {
+            view.setImageResource(mResIdDefault);
+        } else {
+            view.setImageBitmap(thumb.bitmap);
+        }
+    }
+
+    private Bitmap createThumbnail(File file) {
+        PTCFile ptcFile = new PTCFile();
+        InputStream in = null;
+        try {
+            in = new BufferedInputStream(new FileInputStream(file));
+            if (!ptcFile.load(in)) {
+                return null;
+            }
+        } catch (IOException e) {
+            e.printStackTrace();
+            return null;
+        } finally {
+            if (in != null) {
+                try {
+                    in.close();
+                } catch (IOException e) {
+                    e.printStackTrace();
+                }
+            }
+        }
+        switch (ptcFile.getType()) {
+        case PTCFile.PTC_TYPE_CHR:
+            return createChrThumbnail(ptcFile.getData());
+        case PTCFile.PTC_TYPE_COL:
+            return createColThumbnail(ptcFile.getData());
+        case PTCFile.PTC_TYPE_PRG:
+            return createPrgThumbnail(ptcFile);
+        }
+        return null;
+    }
+
+    private Bitmap createChrThumbnail(byte[] data) {
+        /*  All characters in 16x16 grid with palette 0  */
+        ChrData chrData = new ChrData();
+        if (!chrData.deserialize(data)) {
+            return null;
+        }
+        chrData.setColData(mColData);
+        chrData.setTargetSize(1, 1);
+        int cols = 16;
+        int size = cols * ChrData.UNIT_SIZE;
+        int[] pixels = new int[size * size];
+        for (int i = 0; i < ChrData.MAX_CHARS; i++) {
+            chrData.drawTarget(pixels, size, i, 0,
+                    i % cols * ChrData.UNIT_SIZE, i / cols * ChrData.UNIT_SIZE);
+        }
+        return scaleThumbnail(pixels, size, size);
+    }
+
+    private Bitmap createColThumbnail(byte[] data) {
+        /*  One row for each palette  */
+        ColData colData = new ColData();
+        if (!colData.deserialize(data)) {
+            return null;
+        }
+        int[] pixels = new int[ColData.COLS_PER_PAL * ColData.MAX_PALS];
+        for (int pal = 0; pal < ColData.MAX_PALS; pal++) {
+            for (int c = 0; c < ColData.COLS_PER_PAL; c++) {
+                pixels[pal * ColData.COLS_PER_PAL + c] = colData.getColor(pal, c) | 0xFF000000;
+            }
+        }
+        return scaleThumbnail(pixels, ColData.COLS_PER_PAL, ColData.MAX_PALS);
+    }
+
+    private Bitmap createPrgThumbnail(PTCFile ptcFile) {
+        String[] lines = PrgData.getHeadLines(ptcFile, PRG_LINES, mFullCharset);
+        if (lines == null) {
+            return null;
+        }
+        Bitmap bitmap = Bitmap.createBitmap(mSize, mSize, Bitmap.Config.ARGB_8888);
+        Canvas canvas = new Canvas(bitmap);
+        canvas.drawColor(Color.BLACK);
+        Paint paint = new Paint(Paint.ANTI_ALIAS_FLAG);
+        paint.setColor(Color.WHITE);
+        paint.setTextSize(mSize / (float) PRG_LINES);
+        for (int i = 0; i < lines.length; i++) {
+            canvas.drawText(lines[i], 0, (i + 1) * mSize / PRG_LINES - paint.descent(), paint);
+        }
+        return bitmap;
+    }
+
+    private Bitmap scaleThumbnail(int[] pixels, int w, int h) {
+        /*  Enlarge by integer ratio to keep dots sharp, or shrink smoothly  */
+        Bitmap bitmap = Bitmap.createBitmap(pixels, w, h, Bitmap.Config.ARGB_8888);
+        int len = Math.max(w, h);
+        int scale = mSize / len;
+        if (scale == 1) {
+            return bitmap;
+        }
+        Bitmap scaled = (scale > 1) ?
+                Bitmap.createScaledBitmap(bitmap, w * scale, h * scale, false) :
+                Bitmap.createScaledBitmap(bitmap, w * mSize / len, h * mSize / len, true);
+        bitmap.recycle();
+        return scaled;
+    }
+
+    /*-----------------------------------------------------------------------*/
+
+    private File getCacheFile(String path, long length, long lastModified) {
+        String key = path + ':' + length + ':' + lastModified + ':' + mRenderKey;
+        return new File(mCacheDir, toHex(PTCUtils.getMD5(key.getBytes())) + FNAMEEXT_PNG);
+    }
+
+    private static String toHex(byte[] data) {
+        StringBuffer buf = new StringBuffer(data.length * 2);
+        for (byte b : data) {
+            buf.append(Character.forDigit(b >> 4 & 0xF, 16));
+            buf.append(Character.forDigit(b & 0xF, 16));
+        }
+        return buf.toString();
+    }
+
+    private void writeCacheFile(File file, Bitmap bitmap) {
+        OutputStream out = null;
+        try {
+            out = new FileOutputStream(file);
+            bitmap.compress(Bitmap.CompressFormat.PNG, 100, out);
+        } catch (IOException e) {
+            e.printStackTrace();
+        } finally {
+            if (out != null) {
+                try {
+                    out.close();
+                } catch (IOException e) {
+                    e.printStackTrace();
+                }
+            }
+        }
+    }
+
+    private void trimCacheFiles() {
+        /*  Remove least recently written files  */
+        File[] files = mCacheDir.listFiles();
+        if (files == null || files.length <= MAX_DISK_THUMBS) {
+            return;
+        }
+        final long[] times = new long[files.length];
+        Integer[] order = new Integer[files.length];
+        for (int i = 0; i < files.length; i++) {
+            times[i] = files[i].lastModified();
+            order[i] = i;
+        }
+        Arrays.sort(order, new Comparator<Integer>() {
+            @Override
+            public int compare(Integer a, Integer b) {
+                return (times[a] < times[b]) ? 1 : (times[a] > times[b]) ? -1 : 0;
+            }
+        });
+        for (int i = MAX_DISK_THUMBS; i < order.length; i++) {
+            files[order[i]].delete();
+        }
+    }
+
+}
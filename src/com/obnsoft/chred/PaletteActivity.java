@@ -187,7 +187,7 @@ public class PaletteActivity extends Activity implements OnItemSelectedListener,
     }
 
     private void updatePreview() {
-        mApp.mChrData.drawTarget(mBitmap, mApp.mChrIdx, mApp.mPalIdx);
+        ChrRenderer.drawTarget(mApp.mChrData, mBitmap, mApp.mChrIdx, mApp.mPalIdx);
         mPreView.invalidate();
     }
 }
@@ -0,0 +1,182 @@
+/*
+ * Copyright (C) 2013 OBN-soft
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.obnsoft.chred;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletionService;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorCompletionService;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import jp.sourceforge.qrcode.QRCodeDecoder;
+
+import android.graphics.Bitmap;
+import android.graphics.Color;
+
+public class QRPyramidScanner {
+
+    private static final int[] LEVEL_SIZES = { 512, 400, 304 };
+    private static final float MARGIN_RATIO = .25f;
+    private static final int COLOR_QUIET = 0xFFFFFF;
+
+    private Level[] mLevels;
+    private int[] mLine;
+    private volatile int mGeneration;
+    private ExecutorService mExecutor;
+    private List<Future<byte[]>> mPendings = new ArrayList<Future<byte[]>>();
+
+    /*-----------------------------------------------------------------------*/
+
+    class Level {
+        public int size;
+        public int[] pixels;
+        public int[] sums;
+        public int[] counts;
+        public Level(int maxSize) {
+            pixels = new int[maxSize * maxSize];
+            sums = new int[maxSize * maxSize];
+            counts = new int[maxSize * maxSize];
+        }
+    }
+
+    class DecodeTask implements Callable<byte[]> {
+        private int mTaskGeneration;
+        private QRImageBuffer mImage;
+        public DecodeTask(Level level, int x, int y, int w, int h) {
+            mTaskGeneration = mGeneration;
+            mImage = new QRImageBuffer(level.pixels, level.size, level.size);
+            mImage.setTargetArea(x, y, w, h);
+        }
+        @Override
+        public byte[] call() {
+            if (mTaskGeneration != mGeneration) {
+                return null;
+            }
+            byte[] qrData = QRImageBuffer.decode(new QRCodeDecoder(), mImage);
+            if (qrData == null || qrData.length < 2 || qrData[0] != 'P' || qrData[1] != 'T') {
+                return null;
+            }
+            return qrData;
+        }
+    }
+
+    /*-----------------------------------------------------------------------*/
+
+    public QRPyramidScanner() {
+        mLevels = new Level[LEVEL_SIZES.length];
+        for (int i = 0; i < LEVEL_SIZES.length; i++) {
+            mLevels[i] = new Level(LEVEL_SIZES[i]);
+        }
+        mExecutor = Executors.newFixedThreadPool(Runtime.getRuntime().availableProcessors());
+    }
+
+    public synchronized byte[] scan(Bitmap bitmap, int x, int y, int size) {
+        /*  Wait for decoders which still refer the buffers  */
+        mGeneration++;
+        for (Future<byte[]> future : mPendings) {
+            try {
+                future.get();
+            } catch (InterruptedException e) {
+                return null;
+            } catch (ExecutionException e) {
+                e.printStackTrace();
+            }
+        }
+        mPendings.clear();
+
+        /*  Downsample the area and its margin into every level at once  */
+        int margin = (int) (size * MARGIN_RATIO);
+        int areaX = x - margin;
+        int areaY = y - margin;
+        int areaSize = size + margin * 2;
+        downsample(bitmap, areaX, areaY, areaSize);
+
+        /*  Try the viewport and the area with margin in each level concurrently  */
+        CompletionService<byte[]> service = new ExecutorCompletionService<byte[]>(mExecutor);
+        int lastSize = 0;
+        for (Level level : mLevels) {
+            if (level.size == lastSize) {
+                continue; // Same as upper level because the area is small
+            }
+            lastSize = level.size;
+            int inner = level.size * margin / areaSize;
+            mPendings.add(service.submit(new DecodeTask(level, 0, 0, level.size, level.size)));
+            mPendings.add(service.submit(new DecodeTask(level,
+                    inner, inner, level.size - inner * 2, level.size - inner * 2)));
+        }
+        for (int i = 0; i < mPendings.size(); i++) {
+            try {
+                byte[] qrData = service.take().get();
+                if (qrData != null) {
+                    mGeneration++; // Remaining tasks are skipped
+                    return qrData;
+                }
+            } catch (InterruptedException e) {
+                return null;
+            } catch (ExecutionException e) {
+                e.printStackTrace();
+            }
+        }
+        return null;
+    }
+
+    public void shutdown() {
+        mExecutor.shutdownNow();
+    }
+
+    /*-----------------------------------------------------------------------*/
+
+    private void downsample(Bitmap bitmap, int areaX, int areaY, int areaSize) {
+        for (int i = 0; i < mLevels.length; i++) {
+            Level level = mLevels[i];
+            level.size = Math.min(LEVEL_SIZES[i], areaSize);
+            Arrays.fill(level.sums, 0, level.size * level.size, 0);
+            Arrays.fill(level.counts, 0, level.size * level.size, 0);
+        }
+        int l = Math.max(areaX, 0);
+        int t = Math.max(areaY, 0);
+        int r = Math.min(areaX + areaSize, bitmap.getWidth());
+        int b = Math.min(areaY + areaSize, bitmap.getHeight());
+        if (mLine == null || mLine.length < r - l) {
+            mLine = new int[Math.max(r - l, 1)];
+        }
+        for (int sy = t; sy < b && l < r; sy++) {
+            bitmap.getPixels(mLine, 0, r - l, l, sy, r - l, 1);
+            for (Level level : mLevels) {
+                int offset = (sy - areaY) * level.size / areaSize * level.size;
+                for (int sx = l; sx < r; sx++) {
+                    int c = mLine[sx - l];
+                    int idx = offset + (sx - areaX) * level.size / areaSize;
+                    level.sums[idx] += (Color.red(c) + Color.green(c) * 2 + Color.blue(c)) >> 2;
+                    level.counts[idx]++;
+                }
+            }
+        }
+        for (Level level : mLevels) {
+            for (int i = 0, len = level.size * level.size; i < len; i++) {
+                int count = level.counts[i];
+                level.pixels[i] = (count == 0) ? COLOR_QUIET : 0x010101 * (level.sums[i] / count);
+            }
+        }
+    }
+
+}
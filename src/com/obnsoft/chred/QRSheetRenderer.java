@@ -0,0 +1,92 @@
+/*
+ * Copyright (C) 2013 OBN-soft
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.obnsoft.chred;
+
+import java.util.Locale;
+
+import android.graphics.Bitmap;
+import android.graphics.Canvas;
+import android.graphics.Color;
+import android.graphics.Paint;
+
+public class QRSheetRenderer {
+
+    private static final int QR_MARGIN = PTCFile.QR_MARGIN;
+    private static final int QR_PADDING = PTCFile.QR_PADDING;
+    private static final int QR_STEP = PTCFile.QR_STEP;
+
+    /*-----------------------------------------------------------------------*/
+
+    public static Bitmap generateQRCodes(byte[] cmprsData, boolean isTight, String footer) {
+        byte[][] qrDatas = PTCFile.splitQRData(cmprsData, isTight);
+        if (qrDatas == null) return null;
+        int qrCount = qrDatas.length;
+
+        /*  Prepare bitmap  */
+        int qw = (int) Math.ceil(Math.sqrt(qrCount));
+        int qh = (qrCount + qw - 1) / qw;
+        Bitmap bmp = Bitmap.createBitmap(qw * QR_STEP + QR_PADDING * 2,
+                qh * QR_STEP + QR_PADDING * 2, Bitmap.Config.RGB_565);
+        bmp.eraseColor(Color.WHITE);
+        Canvas canvas = new Canvas(bmp);
+        Paint paint = new Paint(Paint.ANTI_ALIAS_FLAG);
+        paint.setStyle(Paint.Style.FILL);
+        if (footer != null) {
+            paint.setColor(Color.GRAY);
+            paint.setTextSize(12);
+            canvas.drawText(footer, bmp.getWidth() - paint.measureText(footer),
+                    bmp.getHeight() - paint.descent(), paint);
+        }
+        paint.setColor(Color.BLACK);
+        paint.setTextSize(24);
+        String lbl = PTCUtils.extractString(cmprsData, 9, 3)
+                .concat(":").concat(PTCUtils.extractString(cmprsData, 0, 8));
+        canvas.drawText(lbl, (bmp.getWidth() - paint.measureText(lbl)) / 2, QR_PADDING, paint);
+        int qx = QR_MARGIN + QR_PADDING;
+        int qy = QR_MARGIN + QR_PADDING;
+        paint.setTextSize(16);
+
+        for (int i = 0; i < qrCount; i++) {
+            /*  Generate QR code  */
+            boolean[][] qr = PTCFile.encodeQRCode(qrDatas[i], isTight);
+
+            /*  Draw QR code  */
+            if (qrCount > 0) {
+                paint.setAntiAlias(true);
+                lbl = String.format(Locale.US, "%d / %d", i + 1, qrCount);
+                canvas.drawText(lbl, qx - QR_MARGIN + (QR_STEP - paint.measureText(lbl)) / 2,
+                        qy - QR_MARGIN + QR_STEP + paint.getTextSize() / 2, paint);
+            }
+            paint.setAntiAlias(false);
+            for (int x = 0, xMax = qr.length; x < xMax; x++) {
+                for (int y = 0, yMax = qr[x].length; y < yMax; y++) {
+                    if (qr[x][y]) {
+                        canvas.drawRect(qx + x * 2, qy + y * 2,
+                                qx + x * 2 + 2, qy + y * 2 + 2, paint);
+                    }
+                }
+            }
+            qx += QR_STEP;
+            if (qx >= qw * QR_STEP) {
+                qx = QR_MARGIN + QR_PADDING;
+                qy += QR_STEP;
+            }
+        }
+        return bmp;
+    }
+
+}
@@ -64,11 +64,12 @@ public class ScanQRActivity extends Activity {
         int total = mQRMan.getTotalQRNumber();
         int current = mQRMan.getCurrentQRNumber();
         if (total == 0 || current < total) {
-            mTextMsg.setText(String.format(getString(R.string.qr_msg), current + 1));
+            mTextMsg.setText(String.format(getString(R.string.qr_msg), mQRMan.getNextQRNumber()));
         }
         if (total > 0) {
+            String name = mQRMan.getNameWithType();
             mTextInfo.setText(String.format(
-                    "%s(%d/%d)", mQRMan.getNameWithType(), current, total));
+                    "%s(%d/%d)", (name == null) ? "" : name, current, total));
         }
     }
 
@@ -18,10 +18,13 @@ package com.obnsoft.chred;
 
 import java.io.IOException;
 import java.io.InputStream;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
 
 import com.obnsoft.view.MagnifyView;
 
-import jp.sourceforge.qrcode.data.QRCodeImage;
+import android.app.ProgressDialog;
 import android.content.Intent;
 import android.graphics.Bitmap;
 import android.graphics.BitmapFactory;
@@ -38,21 +41,31 @@ public class ScanQRGalleryActivity extends ScanQRActivity {
 
     private static final int REQUEST_ID_CHOOSE_FILE = 1;
     private static final int MSG_EXECSCAN = 1;
+    private static final int MSG_SCANALL = 2;
+    private static final int MSG_SCANRESULT = 3;
     private static final int MSEC_TIMEOUT_EXECSCAN = 500;
 
     private boolean mIsOnResult;
     private Uri mUri;
     private Bitmap mBitmap;
     private RectF mWorkRect = new RectF();
-    private QRImageMediator mQrImage;
+    private int mTargetX, mTargetY, mTargetSize;
+    private volatile int mScanGeneration;
+    private QRPyramidScanner mPyramidScanner;
+    private ExecutorService mScanExecutor;
     private MagnifyView mQrView;
+    private MultiQRScanner mScanner;
+    private ProgressDialog mProgressDlg;
 
     private Handler mTimeoutHandler = new Handler() {
         @Override
         public void dispatchMessage(Message msg) {
             if (msg.what == MSG_EXECSCAN) {
-                boolean ret = mQRMan.executeScan(mQrImage);
-                String toastMsg = mQRMan.getMessage();
+                startPyramidScan();
+            } else if (msg.what == MSG_SCANRESULT && msg.arg1 == mScanGeneration) {
+                byte[] qrData = (byte[]) msg.obj;
+                boolean ret = (qrData != null && mQRMan.executeScan(qrData));
+                String toastMsg = (qrData != null) ? mQRMan.getMessage() : null;
                 if (toastMsg != null) {
                     Utils.showToast(ScanQRGalleryActivity.this, toastMsg);
                 }
@@ -68,61 +81,25 @@ public class ScanQRGalleryActivity extends ScanQRActivity {
                         setFailedResult();
                     }
                 }
+            } else if (msg.what == MSG_SCANALL && mScanner != null) {
+                mScanner = null;
+                mProgressDlg.dismiss();
+                @SuppressWarnings("unchecked")
+                List<byte[]> results = (List<byte[]>) msg.obj;
+                executeScanAll(results);
             }
         }
     };
 
     /*-----------------------------------------------------------------------*/
 
-    class QRImageMediator implements QRCodeImage {
-        private static final int MAX_SIZE = 512;
-        private static final int MIN_SIZE = 256;
-        private int mX, mY, mW, mH;
-        private int mSkip = 1;
-        private int mScale = 1;
-        public void setTargetArea(int x, int y, int w, int h) {
-            mX = x;
-            mY = y;
-            mW = w;
-            mH = h;
-            mSkip = 1;
-            mScale = 1;
-            while (getWidth() > MAX_SIZE || getHeight() > MAX_SIZE) {
-                mSkip++;
-            }
-            while (getWidth() < MIN_SIZE && getHeight() < MIN_SIZE) {
-                mScale++;
-            }
-        }
-        @Override
-        public int getWidth() {
-            return mW * mScale / mSkip;
-        }
-        @Override
-        public int getHeight() {
-            return mH * mScale / mSkip;
-        }
-        @Override
-        public int getPixel(int x, int y) {
-            x = x * mSkip / mScale + mX;
-            y = y * mSkip / mScale + mY;
-            if (mBitmap != null && x >= 0 && y >= 0 &&
-                    x < mBitmap.getWidth() && y < mBitmap.getHeight()) {
-                return mBitmap.getPixel(x, y);
-            } else {
-                return Color.BLACK;
-            }
-        }
-    }
-
-    /*-----------------------------------------------------------------------*/
-
     @Override
     protected void onCreate(Bundle savedInstanceState) {
         setContentView(R.layout.scanqr_gal);
         super.onCreate(savedInstanceState);
 
-        mQrImage = new QRImageMediator();
+        mPyramidScanner = new QRPyramidScanner();
+        mScanExecutor = Executors.newSingleThreadExecutor();
         mQrView = (MagnifyView) findViewById(R.id.view_qrimage);
         mQrView.setScrollable(true);
         mQrView.setScaleRange(.25f, 4f);
@@ -147,11 +124,30 @@ public class ScanQRGalleryActivity extends ScanQRActivity {
 
     @Override
     protected void onDestroy() {
+        stopTimer();
+        boolean scanning = (mScanner != null);
+        if (scanning) {
+            mScanner.cancel();
+            mScanner = null;
+            mProgressDlg.dismiss();
+        }
         if (mBitmap != null) {
             mQrView.setBitmap(null, true);
-            mBitmap.recycle();
-            mBitmap = null;
+            if (scanning) {
+                mBitmap = null; // It may be still read by scanner
+            } else {
+                releaseBitmap();
+            }
         }
+
+        /*  Shut down after the running scan without blocking  */
+        mScanExecutor.execute(new Runnable() {
+            @Override
+            public void run() {
+                mPyramidScanner.shutdown();
+            }
+        });
+        mScanExecutor.shutdown();
         super.onDestroy();
     }
 
@@ -163,7 +159,9 @@ public class ScanQRGalleryActivity extends ScanQRActivity {
                 mUri = intent.getData();
                 if (mUri != null) {
                     if (mBitmap != null) {
-                        mBitmap.recycle();
+                        stopTimer();
+                        mQrView.setBitmap(null, true);
+                        releaseBitmap();
                     }
                     try {
                         InputStream in = getContentResolver().openInputStream(mUri);
@@ -190,9 +188,9 @@ public class ScanQRGalleryActivity extends ScanQRActivity {
             case MotionEvent.ACTION_UP:
                 mQrView.getBitmapDrawRect(mWorkRect);
                 float ratio = mBitmap.getWidth() / mWorkRect.width();
-                int size = Math.round(mQrFrame.getWidth() * ratio);
-                mQrImage.setTargetArea((int) ((mQrFrame.getLeft() - mWorkRect.left) * ratio),
-                        (int) ((mQrFrame.getTop() - mWorkRect.top) * ratio), size, size);
+                mTargetX = (int) ((mQrFrame.getLeft() - mWorkRect.left) * ratio);
+                mTargetY = (int) ((mQrFrame.getTop() - mWorkRect.top) * ratio);
+                mTargetSize = Math.round(mQrFrame.getWidth() * ratio);
                 startTimer();
                 break;
             case MotionEvent.ACTION_DOWN:
@@ -208,6 +206,23 @@ public class ScanQRGalleryActivity extends ScanQRActivity {
         requsetFileFromGallery();
     }
 
+    public void onClickScanAll(View v) {
+        if (mBitmap == null || mScanner != null) {
+            return;
+        }
+        stopTimer();
+        mProgressDlg = ProgressDialog.show(this, null, getString(R.string.qr_scanning), true);
+        final MultiQRScanner scanner = new MultiQRScanner(mBitmap);
+        mScanner = scanner;
+        new Thread(new Runnable() {
+            @Override
+            public void run() {
+                List<byte[]> results = scanner.scanAll();
+                mTimeoutHandler.sendMessage(Message.obtain(null, MSG_SCANALL, results));
+            }
+        }).start();
+    }
+
     /*-----------------------------------------------------------------------*/
 
     private void requsetFileFromGallery() {
@@ -216,6 +231,37 @@ public class ScanQRGalleryActivity extends ScanQRActivity {
         startActivityForResult(intent, REQUEST_ID_CHOOSE_FILE);
     }
 
+    private void executeScanAll(List<byte[]> results) {
+        int count = 0;
+        boolean ret = false;
+        for (byte[] qrData : results) {
+            ret = mQRMan.executeScan(qrData);
+            if (ret) {
+                count++;
+            }
+            if (!mQRMan.inProgress()) {
+                break;
+            }
+        }
+        if (mQRMan.inProgress()) {
+            if (count > 0) {
+                setInformation();
+            }
+            String toastMsg = mQRMan.getMessage();
+            if (toastMsg == null) {
+                toastMsg = String.format(getString(R.string.qr_found), count);
+            }
+            Utils.showToast(this, toastMsg);
+            setFrameResultColor(count > 0);
+        } else {
+            if (ret) {
+                setSuccessResult(mQRMan.getData());
+            } else {
+                setFailedResult();
+            }
+        }
+    }
+
     private void startTimer() {
         stopTimer();
         mTimeoutHandler.sendEmptyMessageDelayed(MSG_EXECSCAN, MSEC_TIMEOUT_EXECSCAN);
@@ -223,6 +269,39 @@ public class ScanQRGalleryActivity extends ScanQRActivity {
 
     private void stopTimer() {
         mTimeoutHandler.removeMessages(MSG_EXECSCAN);
+        mScanGeneration++; // Result of running scan is discarded
+    }
+
+    private void startPyramidScan() {
+        final Bitmap bitmap = mBitmap;
+        final int x = mTargetX, y = mTargetY, size = mTargetSize;
+        final int generation = mScanGeneration;
+        if (bitmap == null || size <= 0) {
+            return;
+        }
+        mScanExecutor.submit(new Runnable() {
+            @Override
+            public void run() {
+                if (generation != mScanGeneration) {
+                    return; // Canceled while waiting
+                }
+                byte[] qrData = mPyramidScanner.scan(bitmap, x, y, size);
+                mTimeoutHandler.sendMessage(
+                        Message.obtain(null, MSG_SCANRESULT, generation, 0, qrData));
+            }
+        });
+    }
+
+    private void releaseBitmap() {
+        /*  Bitmap may be still read by the running scan, so recycle it after that  */
+        final Bitmap bitmap = mBitmap;
+        mBitmap = null;
+        mScanExecutor.execute(new Runnable() {
+            @Override
+            public void run() {
+                bitmap.recycle();
+            }
+        });
     }
 
 }
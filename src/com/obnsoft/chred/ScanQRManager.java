@@ -16,30 +16,35 @@
 
 package com.obnsoft.chred;
 
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
 
 import android.content.Context;
 
 import jp.sourceforge.qrcode.QRCodeDecoder;
 import jp.sourceforge.qrcode.data.QRCodeImage;
-import jp.sourceforge.qrcode.exception.DecodingFailedException;
 //import jp.sourceforge.qrcode.util.DebugCanvasAdapter;
 //import android.util.Log;
 
 public class ScanQRManager {
 
+    private static final String FNAME_SESSION = "qrsession.dat";
+
     private boolean mInProgress;
-    private int mCurCnt;
-    private int mCurLen;
-    private int mTotalCnt;
-    private int mTotalLen;
     private String mMessage;
-    private String mEname;
-    private byte[] mMd5All = new byte[16];
-    private byte[] mCmprsData;
+    private boolean mSessionOwned;  // session file is for current data
+    private byte[] mPendingPart;    // first part of new data, not saved yet
 
     private Context mContext;
+    private ExecutorService mSaveExecutor;
     private QRCodeDecoder mDecoder;
+    private QRChunkAssembler mAssembler;
 
     /*class MyDebugCanvas extends DebugCanvasAdapter {
         @Override
@@ -50,20 +55,19 @@ public class ScanQRManager {
 
     public ScanQRManager(Context context) {
         mContext = context;
+        mSaveExecutor = ((MyApplication) context.getApplicationContext()).getSaveExecutor();
         mDecoder = new QRCodeDecoder();
+        mAssembler = new QRChunkAssembler();
         //QRCodeDecoder.setCanvas(new MyDebugCanvas());
         clear();
     }
 
     public void clear() {
         mInProgress = true;
-        mCurCnt = 0;
-        mCurLen = 0;
-        mTotalCnt = 0;
-        mTotalLen = 0;
         mMessage = null;
-        mEname = null;
-        mCmprsData = null;
+        mSessionOwned = false;
+        mPendingPart = null;
+        mAssembler.clear();
     }
 
     public boolean inProgress() {
@@ -71,11 +75,15 @@ public class ScanQRManager {
     }
 
     public int getCurrentQRNumber() {
-        return mCurCnt;
+        return mAssembler.getAcceptedCount();
+    }
+
+    public int getNextQRNumber() {
+        return mAssembler.getNextNumber();
     }
 
     public int getTotalQRNumber() {
-        return mTotalCnt;
+        return mAssembler.getTotalCount();
     }
 
     public String getMessage() {
@@ -83,109 +91,166 @@ public class ScanQRManager {
     }
 
     public String getNameWithType() {
-        return mEname;
+        return mAssembler.getNameWithType();
     }
 
     public byte[] getData() {
-        return mCmprsData;
+        return mAssembler.getData();
     }
 
     public boolean executeScan(QRCodeImage image) {
         myLog("scanQR()");
-        byte[] qrData = null;
-        try {
-            qrData = mDecoder.decode(image);
-        } catch (DecodingFailedException e) {
+        byte[] qrData = QRImageBuffer.decode(mDecoder, image);
+        if (qrData == null) {
             myLog("Not QR code.");
             mMessage = null;
             return false;
         }
-        if (qrData.length <= 36 || qrData[0] != 'P' || qrData[1] != 'T') {
+        return executeScan(qrData);
+    }
+
+    public synchronized boolean executeScan(byte[] qrData) {
+        boolean isFirst = (mAssembler.getTotalCount() == 0);
+        int result = mAssembler.addPart(qrData);
+        if (result == QRChunkAssembler.RESULT_ACCEPTED) {
+            if (isFirst) {
+                List<byte[]> savedParts = loadSession(qrData);
+                if (savedParts != null) {
+                    mSessionOwned = true;
+                    boolean isSaved = false;
+                    for (byte[] savedData : savedParts) {
+                        isSaved |= (savedData[2] == qrData[2]);
+                        mAssembler.addPart(savedData);
+                    }
+                    if (mAssembler.getData() != null) {
+                        result = QRChunkAssembler.RESULT_COMPLETED;
+                    } else if (mAssembler.getAcceptedCount() == mAssembler.getTotalCount()) {
+                        result = QRChunkAssembler.RESULT_BROKEN;
+                    } else if (!isSaved) {
+                        saveSessionParts(false, qrData);
+                    }
+                } else {
+                    mPendingPart = qrData; // Keep saved session in case of a stray scan
+                }
+            } else if (mPendingPart != null) {
+                saveSessionParts(true, mPendingPart, qrData);
+                mPendingPart = null;
+                mSessionOwned = true;
+            } else {
+                saveSessionParts(false, qrData);
+            }
+        }
+        if ((result == QRChunkAssembler.RESULT_COMPLETED ||
+                result == QRChunkAssembler.RESULT_BROKEN) && mSessionOwned) {
+            mSaveExecutor.execute(new Runnable() {
+                @Override
+                public void run() {
+                    mContext.deleteFile(FNAME_SESSION);
+                }
+            });
+            mSessionOwned = false;
+        }
+
+        switch (result) {
+        case QRChunkAssembler.RESULT_ACCEPTED:
+            myLog("Success!");
+            mMessage = null;
+            return true;
+        case QRChunkAssembler.RESULT_DUPLICATED:
+            myLog("Already accepted.");
+            mMessage = String.format(mContext.getString(R.string.qr_msg_already),
+                    qrData[2] & 0xFF);
+            return true;
+        case QRChunkAssembler.RESULT_COMPLETED:
+            myLog("Completed!!");
+            mMessage = null;
+            mInProgress = false;
+            return true;
+        case QRChunkAssembler.RESULT_INVALID:
             myLog("Strange data.");
             mMessage = mContext.getString(R.string.qr_err_invalid);
-            return false; 
-        }
-        byte[] md5each = new byte[16];
-        byte[] md5 = new byte[16];
-        byte[] partData = new byte[qrData.length - 36];
-        System.arraycopy(qrData, 4, md5each, 0, 16);
-        System.arraycopy(qrData, 20, md5, 0, 16);
-        System.arraycopy(qrData, 36, partData, 0, partData.length);
-        if (!Arrays.equals(md5each, Utils.getMD5(partData))) {
+            return false;
+        case QRChunkAssembler.RESULT_CORRUPT:
             myLog("Hash of this data is wrong.");
             mMessage = mContext.getString(R.string.qr_err_corrupt);
             return false;
-        }
-
-        /*  First QR code  */
-        if (mTotalCnt == 0) {
-            if (partData.length <= PTCFile.HEADLEN_CMPRSDATA) {
-                myLog("Too short as 1st QR code.");
-                mMessage = mContext.getString(R.string.qr_err_corrupt);
-                return false;
-            }
-            if (qrData[2] != 1) {
-                myLog("Wrong number for current data.");
-                mMessage = String.format(mContext.getString(R.string.qr_err_order), qrData[2]);
-                return false;
-            }
-            mTotalLen = Utils.extractValue(partData, 12, 4) + PTCFile.HEADLEN_CMPRSDATA;
-            if (mTotalLen < 0 || mTotalLen > PTCFile.WORKLEN_CMPRSDATA) {
-                myLog("Strange total length.");
-                mMessage = mContext.getString(R.string.qr_err_corrupt);
-                return false;
-            }
-            mCurCnt = 0;
-            mTotalCnt = qrData[3];
-            System.arraycopy(qrData, 20, mMd5All, 0, 16);
-            mEname = Utils.extractString(partData, 9, 3).concat(":")
-                    .concat(Utils.extractString(partData, 0, 8));
-            mCmprsData = new byte[mTotalLen];
-        }
-
-        /*  Append data after check  */
-        if (qrData[3] != mTotalCnt || !Arrays.equals(md5, mMd5All)) {
+        case QRChunkAssembler.RESULT_DIFFERENT:
             myLog("Unsuitable for current data.");
             mMessage = mContext.getString(R.string.qr_err_different);
             return false;
-        }
-        if (qrData[2] != mCurCnt + 1) {
-            myLog("Wrong number for current data.");
-            mMessage = String.format(mContext.getString(R.string.qr_err_order), qrData[2]);
-            return false;
-        }
-        if (mCurLen + partData.length > mTotalLen) {
-            myLog("Data is too much.");
+        default:
+            myLog("Whole data is wrong.");
             mMessage = null;
             mInProgress = false;
             return false;
         }
-        System.arraycopy(partData, 0, mCmprsData, mCurLen, partData.length);
-        mCurCnt++;
-        mCurLen += partData.length;
-
-        /*  Last QR code  */
-        if (mCurCnt == mTotalCnt) {
-            if (mCurLen < mTotalLen) {
-                myLog("Data isn't enough.");
-                mMessage = null;
-                mInProgress = false;
-                return false;
+    }
+
+    /*-----------------------------------------------------------------------*/
+
+    private List<byte[]> loadSession(byte[] qrData) {
+        /*  Writes are appended by a single thread, so the file is readable anytime  */
+        List<byte[]> savedParts = null;
+        byte[] md5 = new byte[16];
+        byte[] savedMd5 = new byte[16];
+        System.arraycopy(qrData, 20, md5, 0, 16);
+        try {
+            InputStream in = mContext.openFileInput(FNAME_SESSION);
+            byte[] lenData = new byte[2];
+            try {
+                while (PTCUtils.readFully(in, lenData)) {
+                    byte[] savedData = new byte[PTCUtils.extractValue(lenData, 0, 2)];
+                    if (!PTCUtils.readFully(in, savedData)) {
+                        break;
+                    }
+                    if (savedParts == null) {
+                        /*  Check whether saved session is for the same data  */
+                        if (savedData.length <= QRChunkAssembler.HEADLEN_QRDATA) {
+                            break;
+                        }
+                        System.arraycopy(savedData, 20, savedMd5, 0, 16);
+                        if (savedData[3] != qrData[3] || !Arrays.equals(savedMd5, md5)) {
+                            break;
+                        }
+                        myLog("Resume session.");
+                        savedParts = new ArrayList<byte[]>();
+                    }
+                    savedParts.add(savedData);
+                }
+            } finally {
+                in.close();
+            }
+        } catch (FileNotFoundException e) {
+            // Do nothing
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+        return savedParts;
+    }
+
+    private void saveSessionParts(final boolean isNewSession, final byte[]... parts) {
+        mSaveExecutor.execute(new Runnable() {
+            @Override
+            public void run() {
+                writeSession(isNewSession, parts);
             }
-            if (!Arrays.equals(md5, Utils.getMD5(mCmprsData))) {
-                myLog("Hash of whole data is wrong.");
-                mMessage = null;
-                mInProgress = false;
-                return false;
+        });
+    }
+
+    private void writeSession(boolean isNewSession, byte[]... parts) {
+        try {
+            OutputStream out = mContext.openFileOutput(FNAME_SESSION,
+                    isNewSession ? Context.MODE_PRIVATE : Context.MODE_APPEND);
+            byte[] lenData = new byte[2];
+            for (byte[] qrData : parts) {
+                PTCUtils.embedValue(lenData, 0, 2, qrData.length);
+                out.write(lenData);
+                out.write(qrData);
             }
-            myLog("Completed!!");
-            mMessage = null;
-            mInProgress = false;
-            return true;
+            out.close();
+        } catch (IOException e) {
+            e.printStackTrace();
         }
-        myLog("Success!");
-        mMessage = null;
-        return true;
     }
 
     private void myLog(String str) {
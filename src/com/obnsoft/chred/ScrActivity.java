@@ -0,0 +1,103 @@
+/*
+ * Copyright (C) 2013 OBN-soft
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package com.obnsoft.chred;
+
+import com.obnsoft.view.MagnifyView;
+
+import android.app.Activity;
+import android.graphics.Bitmap;
+import android.graphics.RectF;
+import android.os.Bundle;
+import android.view.ViewTreeObserver;
+
+public class ScrActivity extends Activity implements ViewTreeObserver.OnPreDrawListener {
+
+    private static final int BG_BANKS = 4;
+
+    private Bitmap mBitmap;
+    private RectF mDrawRect = new RectF();
+    private ScrRenderer mRenderer = new ScrRenderer();
+    private ChrData[] mBanks = new ChrData[BG_BANKS];
+
+    private MyApplication mApp;
+    private MagnifyView mMagView;
+
+    /*-----------------------------------------------------------------------*/
+
+    @Override
+    public void onCreate(Bundle savedInstanceState) {
+        super.onCreate(savedInstanceState);
+        mApp = (MyApplication) getApplication();
+        if (mApp.mScrData == null) {
+            finish();
+            return;
+        }
+        mMagView = new MagnifyView(this);
+        mMagView.setScrollable(true);
+        mMagView.setScaleRange(1f, Utils.dp2px(this, 16));
+        setContentView(mMagView);
+
+        /*  Tiles are composited on demand just before the visible part is drawn  */
+        mBitmap = Bitmap.createBitmap(
+                ScrRenderer.WIDTH, ScrRenderer.WIDTH, Bitmap.Config.ARGB_8888);
+        mMagView.setBitmap(mBitmap);
+        mMagView.getViewTreeObserver().addOnPreDrawListener(this);
+    }
+
+    @Override
+    protected void onResume() {
+        /*  Characters and colors may have been edited in the meantime  */
+        for (int i = 0; i < BG_BANKS; i++) {
+            mBanks[i] = mApp.mWorkspace.getBank(Workspace.BANK_PREFIX_BG + i);
+        }
+        mRenderer.setSource(mBanks, mApp.mColData);
+        mBitmap.eraseColor(0);
+        mMagView.invalidate();
+        super.onResume();
+    }
+
+    @Override
+    protected void onDestroy() {
+        super.onDestroy();
+        if (mBitmap != null) {
+            mMagView.getViewTreeObserver().removeOnPreDrawListener(this);
+            mMagView.setBitmap(null);
+            mBitmap.recycle();
+            mBitmap = null;
+            mApp.mWorkspace.trim(Workspace.MAX_RESIDENT_BANKS);
+        }
+    }
+
+    /*-----------------------------------------------------------------------*/
+
+    @Override
+    public boolean onPreDraw() {
+        mMagView.getBitmapDrawRect(mDrawRect);
+        float unit = mDrawRect.width() / ScrRenderer.WIDTH * ChrData.UNIT_SIZE;
+        if (mBitmap == null || unit <= 0) {
+            return true;
+        }
+        int l = (int) Math.floor(-mDrawRect.left / unit);
+        int t = (int) Math.floor(-mDrawRect.top / unit);
+        int r = (int) Math.ceil((mMagView.getWidth() - mDrawRect.left) / unit);
+        int b = (int) Math.ceil((mMagView.getHeight() - mDrawRect.top) / unit);
+        mRenderer.drawTiles(mApp.mScrData, mBitmap, l, t, r, b);
+        return true;
+    }
+
+}
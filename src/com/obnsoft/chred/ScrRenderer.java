@@ -0,0 +1,132 @@
+/*
+ * Copyright (C) 2013 OBN-soft
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package com.obnsoft.chred;
+
+import java.util.Arrays;
+
+import android.graphics.Bitmap;
+
+public class ScrRenderer {
+
+    public static final int WIDTH = ScrData.MAP_SIZE * ChrData.UNIT_SIZE;
+
+    private static final int CACHE_SLOTS = 256;
+    private static final int DOTS_PER_TILE = ChrData.UNIT_SIZE * ChrData.UNIT_SIZE;
+
+    private ChrData[] mBanks;
+    private ColData mColData;
+
+    /*  Rendered tiles keyed by the entry itself, which is (chr, flip, palette)  */
+    private int[] mTiles = new int[CACHE_SLOTS * DOTS_PER_TILE];
+    private int[] mSlotEntries = new int[CACHE_SLOTS];
+    private short[] mEntrySlots = new short[1 << 16];
+    private int mNextSlot;
+
+    private long[] mComposed = new long[ScrData.MAP_SIZE]; // a bit for each tile in a row
+    private int[] mPixels = new int[WIDTH * ChrData.UNIT_SIZE];
+
+    /*-----------------------------------------------------------------------*/
+
+    public ScrRenderer() {
+        invalidate();
+    }
+
+    public void setSource(ChrData[] banks, ColData colData) {
+        mBanks = banks;
+        mColData = colData;
+        invalidate();
+    }
+
+    public void invalidate() {
+        Arrays.fill(mEntrySlots, (short) -1);
+        Arrays.fill(mSlotEntries, -1);
+        Arrays.fill(mComposed, 0);
+        mNextSlot = 0;
+    }
+
+    public boolean drawTiles(ScrData scrData, Bitmap bmp, int l, int t, int r, int b) {
+        /*  Composite tiles in the range which haven't been drawn yet  */
+        l = Math.max(l, 0);
+        t = Math.max(t, 0);
+        r = Math.min(r, ScrData.MAP_SIZE);
+        b = Math.min(b, ScrData.MAP_SIZE);
+        int unit = ChrData.UNIT_SIZE;
+        boolean ret = false;
+        for (int ty = t; ty < b; ty++) {
+            long composed = mComposed[ty];
+            int tx = l;
+            while (tx < r) {
+                if ((composed & 1L << tx) != 0) {
+                    tx++;
+                    continue;
+                }
+                int start = tx;
+                for (; tx < r && (composed & 1L << tx) == 0; tx++) {
+                    int src = getTileSlot(scrData.getEntry(tx, ty)) * DOTS_PER_TILE;
+                    for (int y = 0, offset = tx * unit; y < unit; y++, offset += WIDTH) {
+                        System.arraycopy(mTiles, src + y * unit, mPixels, offset, unit);
+                    }
+                    composed |= 1L << tx;
+                }
+                bmp.setPixels(mPixels, start * unit, WIDTH,
+                        start * unit, ty * unit, (tx - start) * unit, unit);
+                ret = true;
+            }
+            mComposed[ty] = composed;
+        }
+        return ret;
+    }
+
+    /*-----------------------------------------------------------------------*/
+
+    private int getTileSlot(int entry) {
+        int slot = mEntrySlots[entry];
+        if (slot >= 0) {
+            return slot;
+        }
+
+        /*  Reuse the oldest slot  */
+        slot = mNextSlot;
+        mNextSlot = (mNextSlot + 1) % CACHE_SLOTS;
+        if (mSlotEntries[slot] >= 0) {
+            mEntrySlots[mSlotEntries[slot]] = -1;
+        }
+        mSlotEntries[slot] = entry;
+        mEntrySlots[entry] = (short) slot;
+
+        int chrIdx = ScrData.getChrIndex(entry);
+        int pal = ScrData.getPalette(entry);
+        int bankIdx = chrIdx / ChrData.MAX_CHARS;
+        ChrData.ChrUnit chrUnit = null;
+        if (mBanks != null && bankIdx < mBanks.length && mBanks[bankIdx] != null) {
+            chrUnit = mBanks[bankIdx].getChrUnit(chrIdx % ChrData.MAX_CHARS);
+        }
+        int max = ChrData.UNIT_SIZE - 1;
+        int idx = slot * DOTS_PER_TILE;
+        for (int y = 0; y < ChrData.UNIT_SIZE; y++) {
+            int sy = ((entry & ScrData.FLIP_V) != 0) ? max - y : y;
+            for (int x = 0; x < ChrData.UNIT_SIZE; x++) {
+                int sx = ((entry & ScrData.FLIP_H) != 0) ? max - x : x;
+                mTiles[idx++] = (chrUnit != null) ?
+                        mColData.getColor(pal, chrUnit.getUnitDot(sx, sy)) : 0;
+            }
+        }
+        return slot;
+    }
+
+}
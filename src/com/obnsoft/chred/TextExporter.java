@@ -0,0 +1,83 @@
+/*
+ * Copyright (C) 2013 OBN-soft
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package com.obnsoft.chred;
+
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.text.SimpleDateFormat;
+import java.util.Date;
+import java.util.Locale;
+
+import android.content.Context;
+
+public class TextExporter {
+
+    private static final int BUFFER_SIZE = 8192;
+
+    public interface Body {
+        public boolean writeBody(Writer out) throws IOException;
+    }
+
+    /*-----------------------------------------------------------------------*/
+
+    public static String export(Context context, String title, String name, String tag,
+            Body body) {
+        File dir = new File(MyFilePickerActivity.DEFAULT_DIR_TEXT);
+        if (!dir.exists()) {
+            dir.mkdirs();
+        }
+        SimpleDateFormat fmt = new SimpleDateFormat(
+                "'_" + tag + "_'yyMMdd'-'HHmmss'.txt'", Locale.US);
+        String path = MyFilePickerActivity.DEFAULT_DIR_TEXT
+                .concat(name.toLowerCase(Locale.US)).concat(fmt.format(new Date()));
+
+        /*  The body is streamed into the file, not built as a string  */
+        boolean ret = false;
+        try {
+            Writer writer = new BufferedWriter(new OutputStreamWriter(
+                    new FileOutputStream(path), "UTF-8"), BUFFER_SIZE);
+            try {
+                writer.write(title);
+                writer.write(PTCUtils.LF);
+                writer.write("--------");
+                writer.write(PTCUtils.LF);
+                ret = body.writeBody(writer);
+                writer.write("--------");
+                writer.write(PTCUtils.LF);
+                writer.write("Generated by ".concat(context.getString(R.string.app_name))
+                        .concat("  ").concat(Utils.getVersion(context)));
+                writer.write(PTCUtils.LF);
+            } finally {
+                writer.close();
+            }
+        } catch (IOException e) {
+            e.printStackTrace();
+            ret = false;
+        }
+        if (!ret) {
+            new File(path).delete();
+            return null;
+        }
+        return path;
+    }
+
+}
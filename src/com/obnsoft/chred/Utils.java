@@ -17,9 +17,6 @@
 package com.obnsoft.chred;
 
 import java.io.File;
-import java.security.MessageDigest;
-import java.security.NoSuchAlgorithmException;
-import java.util.Arrays;
 
 import android.app.AlertDialog;
 import android.content.ActivityNotFoundException;
@@ -41,7 +38,6 @@ import android.widget.Toast;
 public class Utils {
 
     public static final char IDEOGRAPHICS_SPACE = 0x3000;
-    public static final String LF = "\r\n";
 
     public static String getVersion(Context context) {
         try {
@@ -74,51 +70,6 @@ public class Utils {
 
     /*-----------------------------------------------------------------------*/
 
-    public static byte[] getMD5(byte[] data) {
-        byte[] md5 = null;
-        try {
-            MessageDigest digest;
-            digest = MessageDigest.getInstance("MD5");
-            md5 = digest.digest(data);
-        } catch (NoSuchAlgorithmException e) {
-            e.printStackTrace();
-        }
-        return md5;
-    }
-
-    public static String extractString(byte[] data, int start, int len) {
-        StringBuffer buf = new StringBuffer();
-        for (int i = 0; i < len; i++) {
-            char c = (char) data[start + i];
-            if (c >= 'a') c -= 0x20;
-            if (c >= '0' && c <= '9' || c >= 'A' && c <= 'Z' || c == '_') buf.append(c);
-        }
-        return buf.toString();
-    }
-
-    public static void embedString(byte[] data, int start, int len, String str) {
-        Arrays.fill(data, start, start + len, (byte) 0);
-        System.arraycopy(str.getBytes(), 0, data, start,
-                (str.length() > len) ? len : str.length());
-    }
-
-    public static int extractValue(byte[] data, int start, int len) {
-        int val = 0;
-        for (int i = 0; i < len; i++) {
-            val |= (data[start + i] & 0xFF) << i * 8;
-        }
-        return val;
-    }
-
-    public static void embedValue(byte[] ary, int start, int len, int val) {
-        for (int i = 0; i < len; i++) {
-            ary[start + i] = (byte) (val & 0xFF);
-            val >>= 8;
-        }
-    }
-
-    /*-----------------------------------------------------------------------*/
-
     public static void showYesNoDialog(
             Context context, int iconId, int titleId, String msg, OnClickListener listener) {
         show2ButtonsDialog(context, iconId, titleId, msg,
@@ -147,7 +98,7 @@ public class Utils {
                     intent.setType((mimetype == null) ? "application/octet-stream" : mimetype);
                     if (text != null) {
                         intent.putExtra(Intent.EXTRA_SUBJECT,
-                                text.substring(0, text.indexOf(Utils.LF)));
+                                text.substring(0, text.indexOf(PTCUtils.LF)));
                         intent.putExtra(Intent.EXTRA_TEXT, text);
                     } else {
                         intent.putExtra(Intent.EXTRA_STREAM, uri);
@@ -0,0 +1,220 @@
+/*
+ * Copyright (C) 2013 OBN-soft
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package com.obnsoft.chred;
+
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+
+import android.os.Handler;
+import android.util.Log;
+
+public class Workspace {
+
+    public static final String[] BANK_NAMES = {
+        "SPU0", "SPU1", "SPU2", "SPU3", "SPU4", "SPU5", "SPU6", "SPU7",
+        "BGU0", "BGU1", "BGU2", "BGU3", "BGF0",
+    };
+    public static final String BANK_DEFAULT = "SPU1";
+    public static final String BANK_PREFIX_BG = "BGU";
+    public static final int MAX_RESIDENT_BANKS = 4;
+
+    private static final String TAG = "CHRED";
+    private static final String FNAME_PREFIX = "bank_";
+
+    private MyApplication mApp;
+    private ExecutorService mExecutor;
+    private Handler mHandler = new Handler();
+    private String mCurrentName;
+    private LinkedHashMap<String, ChrData> mResidents =
+            new LinkedHashMap<String, ChrData>(16, .75f, true);
+    private HashMap<String, byte[]> mWritings = new HashMap<String, byte[]>();
+
+    /*-----------------------------------------------------------------------*/
+
+    public Workspace(MyApplication app, ExecutorService executor,
+            String currentName, ChrData currentData) {
+        mApp = app;
+        mExecutor = executor;
+        mCurrentName = (getBankIndex(currentName) >= 0) ? currentName : BANK_DEFAULT;
+        mResidents.put(mCurrentName, currentData);
+    }
+
+    public String getCurrentName() {
+        return mCurrentName;
+    }
+
+    public static int getBankIndex(String name) {
+        for (int i = 0; i < BANK_NAMES.length; i++) {
+            if (BANK_NAMES[i].equals(name)) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    public ChrData switchTo(String name) {
+        /*  Keep previous bank in memory, and write it in background  */
+        ChrData curData = mResidents.get(mCurrentName);
+        if (name.equals(mCurrentName) || getBankIndex(name) < 0) {
+            return curData;
+        }
+        writeBank(mCurrentName, curData.serialize());
+        ChrData data = getBank(name);
+        data.setTargetSize(curData.getTargetSizeH(), curData.getTargetSizeV());
+        mCurrentName = name;
+        trim(MAX_RESIDENT_BANKS);
+        return data;
+    }
+
+    public ChrData getBank(String name) {
+        ChrData data = mResidents.get(name);
+        if (data == null) {
+            data = loadBank(name);
+            mResidents.put(name, data);
+        }
+        return data;
+    }
+
+    public void runWhenBankReady(final String name, final Runnable action) {
+        /*  Read a non-resident bank in background, then run on the UI thread  */
+        if (mResidents.containsKey(name) || getBankIndex(name) < 0) {
+            action.run();
+            return;
+        }
+        mExecutor.execute(new Runnable() {
+            @Override
+            public void run() {
+                final ChrData data = loadBank(name);
+                mHandler.post(new Runnable() {
+                    @Override
+                    public void run() {
+                        if (!mResidents.containsKey(name)) {
+                            mResidents.put(name, data);
+                        }
+                        action.run();
+                    }
+                });
+            }
+        });
+    }
+
+    public boolean copyChrs(String srcName, int src, int dest, int len) {
+        /*  From another bank into current one  */
+        if (src < 0 || src + len > ChrData.MAX_CHARS ||
+                dest < 0 || dest + len > ChrData.MAX_CHARS || getBankIndex(srcName) < 0) {
+            return false;
+        }
+        ChrData srcData = getBank(srcName);
+        ChrData destData = mResidents.get(mCurrentName);
+        for (int i = 0; i < len; i++) {
+            destData.setChrUnit(dest + i, srcData.getChrUnit(src + i));
+        }
+        trim(MAX_RESIDENT_BANKS);
+        return true;
+    }
+
+    public void trim(int maxBanks) {
+        /*  Other banks than current one have been written already  */
+        Iterator<Map.Entry<String, ChrData>> it = mResidents.entrySet().iterator();
+        while (mResidents.size() > maxBanks && it.hasNext()) {
+            if (!it.next().getKey().equals(mCurrentName)) {
+                it.remove();
+            }
+        }
+    }
+
+    /*-----------------------------------------------------------------------*/
+
+    private ChrData loadBank(String name) {
+        ChrData data = new ChrData();
+        data.setColData(mApp.mColData);
+        byte[] bytes;
+        synchronized (mWritings) {
+            bytes = mWritings.get(name); // Not on the storage yet
+        }
+        if (bytes == null) {
+            bytes = readBank(name);
+        }
+        if (bytes != null) {
+            data.deserialize(bytes);
+        }
+        data.resetDirty();
+        return data;
+    }
+
+    private byte[] readBank(String name) {
+        /*  Saved one, or preset one if exists  */
+        PTCFile ptcfile = new PTCFile();
+        try {
+            InputStream in;
+            try {
+                in = mApp.openFileInput(getFileName(name));
+            } catch (FileNotFoundException e) {
+                try {
+                    in = mApp.getResources().getAssets().open(
+                            name.toLowerCase(Locale.US).concat(MyApplication.FNAMEEXT_PTC));
+                } catch (FileNotFoundException e2) {
+                    return null; // Empty bank
+                }
+            }
+            try {
+                if (ptcfile.load(in) && ptcfile.getType() == PTCFile.PTC_TYPE_CHR) {
+                    return ptcfile.getData();
+                }
+            } finally {
+                in.close();
+            }
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+        Log.e(TAG, "Failed to load bank " + name);
+        return null;
+    }
+
+    private void writeBank(final String name, final byte[] bytes) {
+        synchronized (mWritings) {
+            mWritings.put(name, bytes);
+        }
+        mExecutor.execute(new Runnable() {
+            @Override
+            public void run() {
+                if (!mApp.writeFileAtomically(getFileName(name), PTCFile.PTC_TYPE_CHR, bytes)) {
+                    Log.e(TAG, "Failed to save bank " + name);
+                    return; // Keep it in memory
+                }
+                synchronized (mWritings) {
+                    if (mWritings.get(name) == bytes) {
+                        mWritings.remove(name);
+                    }
+                }
+            }
+        });
+    }
+
+    private static String getFileName(String name) {
+        return FNAME_PREFIX.concat(name).concat(MyApplication.FNAMEEXT_PTC);
+    }
+
+}
@@ -0,0 +1,214 @@
+/*
+ * Copyright (C) 2013 OBN-soft
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package com.obnsoft.chred.tools;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Locale;
+
+import com.obnsoft.chred.ChrData;
+import com.obnsoft.chred.ChrTileIndex;
+import com.obnsoft.chred.PTCFile;
+
+public class ChrTiles {
+
+    private static final String[] TRANSFORM_NAMES = {"", "H", "V", "HV", "T", "TH", "TV", "THV"};
+
+    private static final int EXIT_SUCCESS = 0;
+    private static final int EXIT_ERROR = 1;
+    private static final int EXIT_USAGE = 2;
+
+    private int mNear = 2;
+    private boolean mWithUniform;
+    private File mPackDir;
+    private int mPackTransforms = 1;
+    private List<File> mFiles = new ArrayList<File>();
+
+    /*-----------------------------------------------------------------------*/
+
+    public static void main(String[] args) {
+        ChrTiles tiles = new ChrTiles();
+        if (!tiles.parseArgs(args)) {
+            System.err.println("Usage: ChrTiles [-near N] [-all] [-pack DIR [-flip|-rotate]] " +
+                    "FILE.ptc...");
+            System.err.println("Tiles are written as BANK:CHR[/XF], where XF is the transform " +
+                    "which makes the tile");
+            System.err.println("match the group or the paired tile: H/V flip, then T " +
+                    "transpose.");
+            System.exit(EXIT_USAGE);
+        }
+        System.exit(tiles.run());
+    }
+
+    /*-----------------------------------------------------------------------*/
+
+    private boolean parseArgs(String[] args) {
+        try {
+            for (int i = 0; i < args.length; i++) {
+                String arg = args[i];
+                if (arg.equals("-near")) {
+                    mNear = Integer.parseInt(args[++i]);
+                } else if (arg.equals("-all")) {
+                    mWithUniform = true;
+                } else if (arg.equals("-pack")) {
+                    mPackDir = new File(args[++i]);
+                } else if (arg.equals("-flip")) {
+                    mPackTransforms = ChrTileIndex.FLIPS;
+                } else if (arg.equals("-rotate")) {
+                    mPackTransforms = ChrTileIndex.TRANSFORMS;
+                } else if (arg.startsWith("-")) {
+                    return false;
+                } else {
+                    mFiles.add(new File(arg));
+                }
+            }
+        } catch (ArrayIndexOutOfBoundsException e) {
+            return false;
+        } catch (NumberFormatException e) {
+            return false;
+        }
+        return !mFiles.isEmpty() && mNear >= 0 && mNear <= ChrTileIndex.MAX_NEAR_DISTANCE;
+    }
+
+    private int run() {
+        ChrTileIndex index = new ChrTileIndex();
+        List<PTCFile> ptcFiles = new ArrayList<PTCFile>();
+        for (File file : mFiles) {
+            PTCFile ptcFile = new PTCFile();
+            ChrData chrData = new ChrData();
+            if (!loadFile(ptcFile, file) || ptcFile.getType() != PTCFile.PTC_TYPE_CHR ||
+                    !chrData.deserialize(ptcFile.getData())) {
+                System.err.println("Not a CHR file: " + file);
+                return EXIT_USAGE;
+            }
+            index.addBank(file.getName(), chrData);
+            ptcFiles.add(ptcFile);
+        }
+
+        /*  Exact duplicates including flipped and rotated ones  */
+        List<List<ChrTileIndex.TileRef>> groups = index.findDuplicates(mWithUniform);
+        Collections.sort(groups, new Comparator<List<ChrTileIndex.TileRef>>() {
+            @Override
+            public int compare(List<ChrTileIndex.TileRef> a, List<ChrTileIndex.TileRef> b) {
+                return compareRef(a.get(0), b.get(0));
+            }
+        });
+        System.out.printf(Locale.US, "# %d duplicate groups%n", groups.size());
+        for (List<ChrTileIndex.TileRef> group : groups) {
+            StringBuilder buf = new StringBuilder();
+            for (ChrTileIndex.TileRef ref : group) {
+                buf.append(' ').append(describe(index, ref, ref.transform));
+            }
+            System.out.println(buf.substring(1));
+        }
+
+        /*  Near duplicates  */
+        if (mNear > 0) {
+            List<ChrTileIndex.Match> matches = index.findSimilar(mNear);
+            Collections.sort(matches, new Comparator<ChrTileIndex.Match>() {
+                @Override
+                public int compare(ChrTileIndex.Match a, ChrTileIndex.Match b) {
+                    int ret = a.distance - b.distance;
+                    return (ret != 0) ? ret : compareRef(a.a, b.a);
+                }
+            });
+            System.out.printf(Locale.US, "# %d similar pairs within %d dots%n",
+                    matches.size(), mNear);
+            for (ChrTileIndex.Match match : matches) {
+                System.out.printf(Locale.US, "%s %s %d%n", describe(index, match.a, 0),
+                        describe(index, match.b, match.b.transform), match.distance);
+            }
+        }
+
+        /*  Pack each bank  */
+        if (mPackDir != null) {
+            if (!mPackDir.isDirectory() && !mPackDir.mkdirs()) {
+                System.err.println("Can't create " + mPackDir);
+                return EXIT_ERROR;
+            }
+            for (int bank = 0; bank < ptcFiles.size(); bank++) {
+                if (!packBank(ptcFiles.get(bank), new File(mPackDir, mFiles.get(bank).getName()))) {
+                    return EXIT_ERROR;
+                }
+            }
+        }
+        return EXIT_SUCCESS;
+    }
+
+    private boolean packBank(PTCFile ptcFile, File out) {
+        ChrData chrData = new ChrData();
+        chrData.deserialize(ptcFile.getData());
+        int[] remap = ChrTileIndex.consolidate(chrData, mPackTransforms);
+        System.out.printf(Locale.US, "# %s remap%n", out.getName());
+        for (int chr = 0; chr < remap.length; chr++) {
+            if (remap[chr] != chr) {
+                int transform = remap[chr] >> 8;
+                System.out.printf(Locale.US, "%d %d%s%n", chr, remap[chr] & 0xFF,
+                        (transform == 0) ? "" : " ".concat(TRANSFORM_NAMES[transform]));
+            }
+        }
+        try {
+            OutputStream outStream = new FileOutputStream(out);
+            try {
+                return PTCFile.save(outStream, ptcFile.getName(), PTCFile.PTC_TYPE_CHR,
+                        chrData.serialize());
+            } finally {
+                outStream.close();
+            }
+        } catch (IOException e) {
+            System.err.println("Can't write " + out);
+            return false;
+        }
+    }
+
+    private static String describe(ChrTileIndex index, ChrTileIndex.TileRef ref, int transform) {
+        String str = index.getBankName(ref.bank) + ':' + ref.chr;
+        return (transform == 0) ? str : str + '/' + TRANSFORM_NAMES[transform];
+    }
+
+    private static int compareRef(ChrTileIndex.TileRef a, ChrTileIndex.TileRef b) {
+        return (a.bank != b.bank) ? a.bank - b.bank : a.chr - b.chr;
+    }
+
+    private boolean loadFile(PTCFile ptcFile, File file) {
+        InputStream in = null;
+        try {
+            in = new FileInputStream(file);
+            return ptcFile.load(in);
+        } catch (IOException e) {
+            return false;
+        } finally {
+            if (in != null) {
+                try {
+                    in.close();
+                } catch (IOException e) {
+                    e.printStackTrace();
+                }
+            }
+        }
+    }
+
+}
@@ -0,0 +1,366 @@
+/*
+ * Copyright (C) 2013 OBN-soft
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.obnsoft.chred.tools;
+
+import java.awt.image.BufferedImage;
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import javax.imageio.ImageIO;
+
+import com.obnsoft.chred.ChrData;
+import com.obnsoft.chred.ColData;
+import com.obnsoft.chred.PTCFile;
+import com.obnsoft.chred.PTCUtils;
+import com.obnsoft.chred.PrgData;
+
+public class ChredConvert {
+
+    private static final String MODE_PTC2QR = "ptc2qr";
+    private static final String MODE_QR2PTC = "qr2ptc";
+    private static final String MODE_PRG2TXT = "prg2txt";
+    private static final String MODE_PTC2PNG = "ptc2png";
+    private static final String[] MODES =
+            {MODE_PTC2QR, MODE_QR2PTC, MODE_PRG2TXT, MODE_PTC2PNG};
+
+    private static final String FNAMEEXT_PTC = ".ptc";
+    private static final String FNAMEEXT_PNG = ".png";
+    private static final String FNAMEEXT_TXT = ".txt";
+    private static final String FOOTER = "Generated by ChredConvert";
+
+    private static final int EXIT_SUCCESS = 0;
+    private static final int EXIT_FAILED = 1;
+    private static final int EXIT_USAGE = 2;
+
+    private static final int RESULT_OK = 0;
+    private static final int RESULT_SKIP = 1;
+    private static final int RESULT_NG = 2;
+    private static final String[] RESULT_LABELS = {"OK  ", "SKIP", "NG  "};
+
+    private static final int BANK_COLUMNS = 16;
+
+    private String mMode;
+    private File mOutDir = new File(".");
+    private int mThreads = Runtime.getRuntime().availableProcessors();
+    private boolean mIsTight;
+    private boolean mIsFullCharset;
+    private int mPalIdx;
+    private File mPaletteFile;
+    private ColData mColData = new ColData();
+    private List<File> mInputs = new ArrayList<File>();
+    private int mDoneCount;
+
+    /*-----------------------------------------------------------------------*/
+
+    class Job {
+        public File in;
+        public File out;
+        public Job(File in, File out) {
+            this.in = in;
+            this.out = out;
+        }
+    }
+
+    /*-----------------------------------------------------------------------*/
+
+    public static void main(String[] args) {
+        ChredConvert convert = new ChredConvert();
+        if (!convert.parseArgs(args)) {
+            System.err.println("Usage: ChredConvert MODE [-o DIR] [-j THREADS] [-tight] [-full]");
+            System.err.println("                   [-palette FILE.ptc] [-pal N] FILE|DIR...");
+            System.err.println("MODE: ptc2qr  PTC to QR code sheet (.png)");
+            System.err.println("      qr2ptc  QR code sheet (.png) to PTC");
+            System.err.println("      prg2txt PRG to text (.txt)");
+            System.err.println("      ptc2png CHR or COL to image (.png)");
+            System.exit(EXIT_USAGE);
+        }
+        System.exit(convert.run());
+    }
+
+    /*-----------------------------------------------------------------------*/
+
+    private boolean parseArgs(String[] args) {
+        if (args.length == 0 || !Arrays.asList(MODES).contains(args[0])) {
+            return false;
+        }
+        mMode = args[0];
+        try {
+            for (int i = 1; i < args.length; i++) {
+                String arg = args[i];
+                if (arg.equals("-o")) {
+                    mOutDir = new File(args[++i]);
+                } else if (arg.equals("-j")) {
+                    mThreads = Integer.parseInt(args[++i]);
+                } else if (arg.equals("-tight")) {
+                    mIsTight = true;
+                } else if (arg.equals("-full")) {
+                    mIsFullCharset = true;
+                } else if (arg.equals("-palette")) {
+                    mPaletteFile = new File(args[++i]);
+                } else if (arg.equals("-pal")) {
+                    mPalIdx = Integer.parseInt(args[++i]);
+                } else if (arg.startsWith("-")) {
+                    return false;
+                } else {
+                    mInputs.add(new File(arg));
+                }
+            }
+        } catch (ArrayIndexOutOfBoundsException e) {
+            return false;
+        } catch (NumberFormatException e) {
+            return false;
+        }
+        return !mInputs.isEmpty() && mThreads > 0 && mPalIdx >= 0 && mPalIdx < ColData.MAX_PALS;
+    }
+
+    private int run() {
+        if (mPaletteFile != null) {
+            PTCFile ptcFile = loadPTCFile(mPaletteFile);
+            if (ptcFile == null || ptcFile.getType() != PTCFile.PTC_TYPE_COL ||
+                    !mColData.deserialize(ptcFile.getData())) {
+                System.err.println("Invalid palette: " + mPaletteFile);
+                return EXIT_USAGE;
+            }
+        }
+
+        /*  Collect input files  */
+        String inExt = MODE_QR2PTC.equals(mMode) ? FNAMEEXT_PNG : FNAMEEXT_PTC;
+        String outExt = MODE_QR2PTC.equals(mMode) ? FNAMEEXT_PTC :
+                MODE_PRG2TXT.equals(mMode) ? FNAMEEXT_TXT : FNAMEEXT_PNG;
+        final List<Job> jobs = new ArrayList<Job>();
+        for (File input : mInputs) {
+            if (input.isDirectory()) {
+                collectJobs(jobs, input, mOutDir, inExt, outExt);
+            } else if (input.isFile()) {
+                jobs.add(new Job(input, new File(mOutDir, replaceExt(input.getName(), outExt))));
+            } else {
+                System.err.println("Not found: " + input);
+                return EXIT_USAGE;
+            }
+        }
+
+        /*  Convert in parallel  */
+        ExecutorService executor = Executors.newFixedThreadPool(mThreads);
+        List<Future<Integer>> futures = new ArrayList<Future<Integer>>(jobs.size());
+        for (final Job job : jobs) {
+            futures.add(executor.submit(new Callable<Integer>() {
+                @Override
+                public Integer call() {
+                    int result = convert(job);
+                    reportProgress(job, result, jobs.size());
+                    return result;
+                }
+            }));
+        }
+        int[] counts = new int[RESULT_LABELS.length];
+        for (Future<Integer> future : futures) {
+            try {
+                counts[future.get()]++;
+            } catch (InterruptedException e) {
+                counts[RESULT_NG]++;
+            } catch (ExecutionException e) {
+                e.printStackTrace();
+                counts[RESULT_NG]++;
+            }
+        }
+        executor.shutdown();
+        System.err.printf(Locale.US, "%d converted, %d skipped, %d failed%n",
+                counts[RESULT_OK], counts[RESULT_SKIP], counts[RESULT_NG]);
+        return (counts[RESULT_NG] == 0) ? EXIT_SUCCESS : EXIT_FAILED;
+    }
+
+    private void collectJobs(List<Job> jobs, File dir, File outDir, String inExt, String outExt) {
+        File[] files = dir.listFiles();
+        if (files == null) {
+            return;
+        }
+        Arrays.sort(files);
+        for (File file : files) {
+            String name = file.getName();
+            if (file.isDirectory()) {
+                collectJobs(jobs, file, new File(outDir, name), inExt, outExt);
+            } else if (name.toLowerCase(Locale.US).endsWith(inExt)) {
+                jobs.add(new Job(file, new File(outDir, replaceExt(name, outExt))));
+            }
+        }
+    }
+
+    private synchronized void reportProgress(Job job, int result, int total) {
+        mDoneCount++;
+        System.err.printf(Locale.US, "[%d/%d] %s %s%n",
+                mDoneCount, total, RESULT_LABELS[result], job.in.getPath());
+    }
+
+    /*-----------------------------------------------------------------------*/
+
+    private int convert(Job job) {
+        try {
+            File dir = job.out.getParentFile();
+            if (dir != null && !dir.isDirectory() && !dir.mkdirs()) {
+                return RESULT_NG;
+            }
+            if (MODE_QR2PTC.equals(mMode)) {
+                return convertQRToPTC(job);
+            }
+            PTCFile ptcFile = loadPTCFile(job.in);
+            if (ptcFile == null) {
+                return RESULT_NG;
+            }
+            if (MODE_PTC2QR.equals(mMode)) {
+                return convertPTCToQR(ptcFile, job.out);
+            } else if (MODE_PRG2TXT.equals(mMode)) {
+                return convertPRGToText(ptcFile, job.out);
+            } else {
+                return convertPTCToPNG(ptcFile, job.out);
+            }
+        } catch (IOException e) {
+            System.err.println(job.in.getPath() + ": " + e.getMessage());
+            return RESULT_NG;
+        } catch (RuntimeException e) {
+            /*  A broken file must not stop counting the others  */
+            System.err.println(job.in.getPath() + ": " + e);
+            return RESULT_NG;
+        }
+    }
+
+    private int convertPTCToQR(PTCFile ptcFile, File out) throws IOException {
+        BufferedImage image = QRSheetImage.render(ptcFile.compress(), mIsTight, FOOTER);
+        if (image == null) {
+            return RESULT_NG;
+        }
+        return ImageIO.write(image, "png", out) ? RESULT_OK : RESULT_NG;
+    }
+
+    private int convertQRToPTC(Job job) throws IOException {
+        BufferedImage image = ImageIO.read(job.in);
+        if (image == null) {
+            return RESULT_NG;
+        }
+        byte[] cmprsData = QRSheetImage.scan(image);
+        PTCFile ptcFile = new PTCFile();
+        if (cmprsData == null || !ptcFile.expand(cmprsData)) {
+            return RESULT_NG;
+        }
+        OutputStream out = new FileOutputStream(job.out);
+        try {
+            return ptcFile.save(out) ? RESULT_OK : RESULT_NG;
+        } finally {
+            out.close();
+        }
+    }
+
+    private int convertPRGToText(PTCFile ptcFile, File out) throws IOException {
+        if (ptcFile.getType() != PTCFile.PTC_TYPE_PRG) {
+            return RESULT_SKIP;
+        }
+        if (!PrgData.isValidData(ptcFile.getData())) {
+            return RESULT_NG;
+        }
+        Writer writer = new BufferedWriter(
+                new OutputStreamWriter(new FileOutputStream(out), "UTF-8"));
+        try {
+            writer.write(ptcFile.getNameWithType());
+            writer.write(PTCUtils.LF);
+            writer.write("--------");
+            writer.write(PTCUtils.LF);
+            PrgData.writeText(ptcFile, writer, mIsFullCharset);
+            writer.write("--------");
+            writer.write(PTCUtils.LF);
+            writer.write(FOOTER);
+            writer.write(PTCUtils.LF);
+        } finally {
+            writer.close();
+        }
+        return RESULT_OK;
+    }
+
+    private int convertPTCToPNG(PTCFile ptcFile, File out) throws IOException {
+        int size = BANK_COLUMNS * ChrData.UNIT_SIZE;
+        int[] pixels = new int[size * size];
+        if (ptcFile.getType() == PTCFile.PTC_TYPE_CHR) {
+            ChrData chrData = new ChrData();
+            if (!chrData.deserialize(ptcFile.getData())) {
+                return RESULT_NG;
+            }
+            chrData.setColData(mColData);
+            chrData.setTargetSize(1, 1);
+            for (int i = 0; i < ChrData.MAX_CHARS; i++) {
+                chrData.drawTarget(pixels, size, i, mPalIdx,
+                        i % BANK_COLUMNS * ChrData.UNIT_SIZE, i / BANK_COLUMNS * ChrData.UNIT_SIZE);
+            }
+        } else if (ptcFile.getType() == PTCFile.PTC_TYPE_COL) {
+            ColData colData = new ColData();
+            if (!colData.deserialize(ptcFile.getData())) {
+                return RESULT_NG;
+            }
+            for (int y = 0; y < size; y++) {
+                for (int x = 0; x < size; x++) {
+                    pixels[y * size + x] = colData.getColor(y / ChrData.UNIT_SIZE,
+                            x / ChrData.UNIT_SIZE) | 0xFF000000;
+                }
+            }
+        } else {
+            return RESULT_SKIP;
+        }
+        BufferedImage image = new BufferedImage(size, size, BufferedImage.TYPE_INT_ARGB);
+        image.setRGB(0, 0, size, size, pixels, 0, size);
+        return ImageIO.write(image, "png", out) ? RESULT_OK : RESULT_NG;
+    }
+
+    /*-----------------------------------------------------------------------*/
+
+    private static PTCFile loadPTCFile(File file) {
+        PTCFile ptcFile = new PTCFile();
+        InputStream in = null;
+        try {
+            in = new FileInputStream(file);
+            return ptcFile.load(in) ? ptcFile : null;
+        } catch (IOException e) {
+            return null;
+        } finally {
+            if (in != null) {
+                try {
+                    in.close();
+                } catch (IOException e) {
+                    e.printStackTrace();
+                }
+            }
+        }
+    }
+
+    private static String replaceExt(String name, String ext) {
+        int pos = name.lastIndexOf('.');
+        return ((pos > 0) ? name.substring(0, pos) : name).concat(ext);
+    }
+
+}
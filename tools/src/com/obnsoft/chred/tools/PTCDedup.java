@@ -0,0 +1,212 @@
+/*
+ * Copyright (C) 2013 OBN-soft
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package com.obnsoft.chred.tools;
+
+import java.io.File;
+import java.io.IOException;
+import java.math.BigInteger;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.ForkJoinPool;
+
+import com.obnsoft.chred.PTCFile;
+import com.obnsoft.chred.PTCIndex;
+import com.obnsoft.chred.PTCUtils;
+
+public class PTCDedup {
+
+    private static final String FNAMEEXT_TMP = ".dedup";
+    private static final String NOTE_DIFFERS = "(content differs)";
+
+    private static final int EXIT_SUCCESS = 0;
+    private static final int EXIT_FOUND = 1;
+    private static final int EXIT_USAGE = 2;
+
+    private boolean mLink;
+    private int mParallelism = Runtime.getRuntime().availableProcessors();
+    private List<File> mInputs = new ArrayList<File>();
+
+    /*-----------------------------------------------------------------------*/
+
+    public static void main(String[] args) {
+        PTCDedup dedup = new PTCDedup();
+        if (!dedup.parseArgs(args)) {
+            System.err.println("Usage: PTCDedup [-j THREADS] [-link] FILE|DIR...");
+            System.exit(EXIT_USAGE);
+        }
+        System.exit(dedup.run());
+    }
+
+    /*-----------------------------------------------------------------------*/
+
+    private boolean parseArgs(String[] args) {
+        try {
+            for (int i = 0; i < args.length; i++) {
+                String arg = args[i];
+                if (arg.equals("-link")) {
+                    mLink = true;
+                } else if (arg.equals("-j")) {
+                    mParallelism = Integer.parseInt(args[++i]);
+                } else if (arg.startsWith("-")) {
+                    return false;
+                } else {
+                    mInputs.add(new File(arg));
+                }
+            }
+        } catch (ArrayIndexOutOfBoundsException e) {
+            return false;
+        } catch (NumberFormatException e) {
+            return false;
+        }
+        return !mInputs.isEmpty() && mParallelism > 0;
+    }
+
+    private int run() {
+        /*  Read headers only, in parallel  */
+        ForkJoinPool pool = new ForkJoinPool(mParallelism);
+        PTCTreeTask.Visitor<PTCIndex.Entry> reader = new PTCTreeTask.Visitor<PTCIndex.Entry>() {
+            @Override
+            public PTCIndex.Entry visit(File file) {
+                return PTCIndex.readEntry(file);
+            }
+        };
+        PTCIndex index = new PTCIndex();
+        for (File input : mInputs) {
+            if (input.isDirectory()) {
+                for (PTCIndex.Entry entry :
+                        pool.invoke(new PTCTreeTask<PTCIndex.Entry>(input, reader))) {
+                    index.put(entry);
+                }
+            } else if (input.isFile()) {
+                index.put(PTCIndex.readEntry(input));
+            } else {
+                System.err.println("Not found: " + input);
+                return EXIT_USAGE;
+            }
+        }
+        pool.shutdown();
+
+        /*  Report groups, and replace copies with hard links if requested  */
+        List<List<PTCIndex.Entry>> groups = index.findDuplicates();
+        long wasted = 0;
+        int failures = 0;
+        for (List<PTCIndex.Entry> group : groups) {
+            PTCIndex.Entry first = group.get(0);
+            System.out.printf(Locale.US, "%s %s %d bytes x %d%n",
+                    PTCIndex.getContentKey(first).substring(0, 32),
+                    PTCFile.getPrefixFromType(first.type), first.size, group.size());
+            Map<PTCIndex.Entry, PTCIndex.Entry> keeps = mLink ? findKeeps(group) : null;
+            for (PTCIndex.Entry entry : group) {
+                String note = "";
+                if (entry != first) {
+                    wasted += entry.size;
+                }
+                if (mLink) {
+                    /*  Same header may have different embedded names, so link files to
+                        the first one of the same whole content  */
+                    PTCIndex.Entry keep = keeps.get(entry);
+                    if (keep != entry) {
+                        note = linkFile(keep, entry);
+                    } else if (entry != first && isAlone(keeps, entry)) {
+                        note = linkFile(first, entry); // Tell why it can't be linked
+                    }
+                    if (note.startsWith("failed") || note.equals(NOTE_DIFFERS)) {
+                        failures++;
+                    }
+                }
+                System.out.printf(Locale.US, "  %s [%s]%s%n", entry.path, entry.name,
+                        (note.length() == 0) ? "" : " ".concat(note));
+            }
+        }
+        System.err.printf(Locale.US, "%d files, %d duplicate groups, %d bytes in copies%n",
+                index.size(), groups.size(), wasted);
+        if (mLink) {
+            return (failures == 0) ? EXIT_SUCCESS : EXIT_FOUND;
+        }
+        return groups.isEmpty() ? EXIT_SUCCESS : EXIT_FOUND;
+    }
+
+    private Map<PTCIndex.Entry, PTCIndex.Entry> findKeeps(List<PTCIndex.Entry> group) {
+        /*  Map each entry to the first entry of the same whole content  */
+        Map<PTCIndex.Entry, PTCIndex.Entry> keeps = new HashMap<PTCIndex.Entry, PTCIndex.Entry>();
+        Map<String, PTCIndex.Entry> firstMap = new HashMap<String, PTCIndex.Entry>();
+        for (PTCIndex.Entry entry : group) {
+            String key;
+            try {
+                byte[] md5 = PTCUtils.getMD5(Files.readAllBytes(new File(entry.path).toPath()));
+                key = new BigInteger(1, md5).toString(16);
+            } catch (IOException e) {
+                key = "!".concat(entry.path); // Alone, and linkFile() tells the error
+            }
+            PTCIndex.Entry keep = firstMap.get(key);
+            if (keep == null) {
+                keep = entry;
+                firstMap.put(key, entry);
+            }
+            keeps.put(entry, keep);
+        }
+        return keeps;
+    }
+
+    private static boolean isAlone(Map<PTCIndex.Entry, PTCIndex.Entry> keeps,
+            PTCIndex.Entry entry) {
+        for (Map.Entry<PTCIndex.Entry, PTCIndex.Entry> pair : keeps.entrySet()) {
+            if (pair.getValue() == entry && pair.getKey() != entry) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private String linkFile(PTCIndex.Entry keep, PTCIndex.Entry copy) {
+        /*  Only byte-identical files, because embedded names may differ  */
+        Path keepPath = new File(keep.path).toPath();
+        Path copyPath = new File(copy.path).toPath();
+        Path tmpPath = new File(copy.path.concat(FNAMEEXT_TMP)).toPath();
+        try {
+            if (Files.isSameFile(keepPath, copyPath)) {
+                return "(already linked)";
+            }
+            if (keep.size != copy.size ||
+                    !Arrays.equals(Files.readAllBytes(keepPath), Files.readAllBytes(copyPath))) {
+                return NOTE_DIFFERS;
+            }
+            Files.createLink(tmpPath, keepPath);
+            Files.move(tmpPath, copyPath, StandardCopyOption.REPLACE_EXISTING,
+                    StandardCopyOption.ATOMIC_MOVE);
+            return "(linked)";
+        } catch (IOException e) {
+            try {
+                Files.deleteIfExists(tmpPath);
+            } catch (IOException e2) {
+                e2.printStackTrace();
+            }
+            return "failed: ".concat(e.toString());
+        } catch (UnsupportedOperationException e) {
+            return "failed: ".concat(e.toString());
+        }
+    }
+
+}
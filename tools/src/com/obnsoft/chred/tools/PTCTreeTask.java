@@ -0,0 +1,88 @@
+/*
+ * Copyright (C) 2013 OBN-soft
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.obnsoft.chred.tools;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.RecursiveTask;
+
+public class PTCTreeTask<T> extends RecursiveTask<List<T>> {
+
+    private static final long serialVersionUID = 1L;
+    private static final String FNAMEEXT_PTC = ".ptc";
+
+    private File mDir;
+    private Visitor<T> mVisitor;
+
+    /*-----------------------------------------------------------------------*/
+
+    public interface Visitor<T> {
+        public T visit(File file); // called in worker threads
+    }
+
+    static class FileTask<T> extends RecursiveTask<T> {
+        private static final long serialVersionUID = 1L;
+        private File mFile;
+        private Visitor<T> mVisitor;
+        public FileTask(File file, Visitor<T> visitor) {
+            mFile = file;
+            mVisitor = visitor;
+        }
+        @Override
+        protected T compute() {
+            return mVisitor.visit(mFile);
+        }
+    }
+
+    /*-----------------------------------------------------------------------*/
+
+    public PTCTreeTask(File dir, Visitor<T> visitor) {
+        mDir = dir;
+        mVisitor = visitor;
+    }
+
+    @Override
+    protected List<T> compute() {
+        /*  Visit every .ptc file under the directory in parallel  */
+        List<T> results = new ArrayList<T>();
+        File[] files = mDir.listFiles();
+        if (files == null) {
+            return results;
+        }
+        List<PTCTreeTask<T>> subTasks = new ArrayList<PTCTreeTask<T>>();
+        List<FileTask<T>> fileTasks = new ArrayList<FileTask<T>>();
+        for (File file : files) {
+            if (file.isDirectory()) {
+                subTasks.add(new PTCTreeTask<T>(file, mVisitor));
+            } else if (file.getName().toLowerCase(Locale.US).endsWith(FNAMEEXT_PTC)) {
+                fileTasks.add(new FileTask<T>(file, mVisitor));
+            }
+        }
+        invokeAll(subTasks);
+        invokeAll(fileTasks);
+        for (PTCTreeTask<T> task : subTasks) {
+            results.addAll(task.join());
+        }
+        for (FileTask<T> task : fileTasks) {
+            results.add(task.join());
+        }
+        return results;
+    }
+
+}
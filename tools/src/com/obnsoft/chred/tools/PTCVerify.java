@@ -0,0 +1,278 @@
+/*
+ * Copyright (C) 2013 OBN-soft
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.obnsoft.chred.tools;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStreamWriter;
+import java.io.PrintWriter;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.ForkJoinPool;
+
+import com.obnsoft.chred.ChrData;
+import com.obnsoft.chred.ColData;
+import com.obnsoft.chred.PTCFile;
+import com.obnsoft.chred.PrgData;
+
+public class PTCVerify {
+
+    private static final String FORMAT_JSON = "json";
+    private static final String FORMAT_CSV = "csv";
+
+    private static final String REASON_OK = "ok";
+    private static final String REASON_IO = "io";           // can't read the file
+    private static final String REASON_FILE = "file";       // PTC ID, length or MD5 is wrong
+    private static final String REASON_DATA = "data";       // header of the type is wrong
+
+    private static final int EXIT_SUCCESS = 0;
+    private static final int EXIT_INVALID = 1;
+    private static final int EXIT_USAGE = 2;
+
+    private String mFormat = FORMAT_JSON;
+    private File mOutFile;
+    private int mParallelism = Runtime.getRuntime().availableProcessors();
+    private List<File> mInputs = new ArrayList<File>();
+
+    /*-----------------------------------------------------------------------*/
+
+    static class Result {
+        public String path;
+        public long size;
+        public String type;
+        public String name;
+        public String reason;
+        public boolean isValid() {
+            return REASON_OK.equals(reason);
+        }
+    }
+
+    /*-----------------------------------------------------------------------*/
+
+    public static void main(String[] args) {
+        PTCVerify verify = new PTCVerify();
+        if (!verify.parseArgs(args)) {
+            System.err.println("Usage: PTCVerify [-format json|csv] [-o FILE] [-j THREADS] " +
+                    "FILE|DIR...");
+            System.exit(EXIT_USAGE);
+        }
+        System.exit(verify.run());
+    }
+
+    public static Result verify(File file) {
+        Result result = new Result();
+        result.path = file.getPath();
+        result.size = file.length();
+        PTCFile ptcFile = new PTCFile();
+        InputStream in = null;
+        try {
+            in = new FileInputStream(file);
+            if (!ptcFile.load(in)) {
+                result.reason = REASON_FILE;
+                return result;
+            }
+        } catch (IOException e) {
+            result.reason = REASON_IO;
+            return result;
+        } finally {
+            if (in != null) {
+                try {
+                    in.close();
+                } catch (IOException e) {
+                    e.printStackTrace();
+                }
+            }
+        }
+        result.type = PTCFile.getPrefixFromType(ptcFile.getType());
+        result.name = ptcFile.getName();
+        byte[] data = ptcFile.getData();
+        boolean isValid;
+        switch (ptcFile.getType()) {
+        case PTCFile.PTC_TYPE_PRG:
+            isValid = PrgData.isValidData(data);
+            break;
+        case PTCFile.PTC_TYPE_CHR:
+            isValid = ChrData.isValidData(data);
+            break;
+        case PTCFile.PTC_TYPE_COL:
+            isValid = ColData.isValidData(data);
+            break;
+        case PTCFile.PTC_TYPE_MEM:
+        case PTCFile.PTC_TYPE_GRP:
+        case PTCFile.PTC_TYPE_SCR:
+            isValid = true; // Only MD5 is checked
+            break;
+        default:
+            isValid = false;
+            break;
+        }
+        result.reason = isValid ? REASON_OK : REASON_DATA;
+        return result;
+    }
+
+    /*-----------------------------------------------------------------------*/
+
+    private boolean parseArgs(String[] args) {
+        try {
+            for (int i = 0; i < args.length; i++) {
+                String arg = args[i];
+                if (arg.equals("-format")) {
+                    mFormat = args[++i];
+                } else if (arg.equals("-o")) {
+                    mOutFile = new File(args[++i]);
+                } else if (arg.equals("-j")) {
+                    mParallelism = Integer.parseInt(args[++i]);
+                } else if (arg.startsWith("-")) {
+                    return false;
+                } else {
+                    mInputs.add(new File(arg));
+                }
+            }
+        } catch (ArrayIndexOutOfBoundsException e) {
+            return false;
+        } catch (NumberFormatException e) {
+            return false;
+        }
+        return !mInputs.isEmpty() && mParallelism > 0 &&
+                (FORMAT_JSON.equals(mFormat) || FORMAT_CSV.equals(mFormat));
+    }
+
+    private int run() {
+        ForkJoinPool pool = new ForkJoinPool(mParallelism);
+        PTCTreeTask.Visitor<Result> verifier = new PTCTreeTask.Visitor<Result>() {
+            @Override
+            public Result visit(File file) {
+                return verify(file);
+            }
+        };
+        List<Result> results = new ArrayList<Result>();
+        for (File input : mInputs) {
+            if (input.isDirectory()) {
+                results.addAll(pool.invoke(new PTCTreeTask<Result>(input, verifier)));
+            } else if (input.isFile()) {
+                results.add(verify(input));
+            } else {
+                System.err.println("Not found: " + input);
+                return EXIT_USAGE;
+            }
+        }
+        pool.shutdown();
+        Collections.sort(results, new Comparator<Result>() {
+            @Override
+            public int compare(Result a, Result b) {
+                return a.path.compareTo(b.path);
+            }
+        });
+
+        /*  Output report  */
+        PrintWriter writer;
+        try {
+            writer = new PrintWriter(new OutputStreamWriter((mOutFile == null) ?
+                    System.out : new FileOutputStream(mOutFile), "UTF-8"));
+        } catch (IOException e) {
+            System.err.println("Can't write " + mOutFile);
+            return EXIT_USAGE;
+        }
+        if (FORMAT_CSV.equals(mFormat)) {
+            writeCSV(writer, results);
+        } else {
+            writeJSON(writer, results);
+        }
+        writer.flush();
+        if (mOutFile != null) {
+            writer.close();
+        }
+
+        int invalidCount = 0;
+        for (Result result : results) {
+            if (!result.isValid()) {
+                invalidCount++;
+            }
+        }
+        System.err.printf(Locale.US, "%d files, %d invalid%n", results.size(), invalidCount);
+        return (invalidCount == 0) ? EXIT_SUCCESS : EXIT_INVALID;
+    }
+
+    private void writeCSV(PrintWriter writer, List<Result> results) {
+        writer.print("path,type,name,size,valid,reason\r\n");
+        for (Result result : results) {
+            writer.print(quoteCSV(result.path));
+            writer.print(',');
+            writer.print(quoteCSV(result.type));
+            writer.print(',');
+            writer.print(quoteCSV(result.name));
+            writer.print(',');
+            writer.print(result.size);
+            writer.print(',');
+            writer.print(result.isValid());
+            writer.print(',');
+            writer.print(result.reason);
+            writer.print("\r\n");
+        }
+    }
+
+    private void writeJSON(PrintWriter writer, List<Result> results) {
+        writer.println("[");
+        for (int i = 0; i < results.size(); i++) {
+            Result result = results.get(i);
+            writer.printf(Locale.US,
+                    "  {\"path\": %s, \"type\": %s, \"name\": %s, \"size\": %d, " +
+                    "\"valid\": %b, \"reason\": \"%s\"}%s%n",
+                    quoteJSON(result.path), quoteJSON(result.type), quoteJSON(result.name),
+                    result.size, result.isValid(), result.reason,
+                    (i < results.size() - 1) ? "," : "");
+        }
+        writer.println("]");
+    }
+
+    private static String quoteCSV(String str) {
+        if (str == null) {
+            return "";
+        }
+        if (str.indexOf(',') < 0 && str.indexOf('"') < 0 &&
+                str.indexOf('\n') < 0 && str.indexOf('\r') < 0) {
+            return str;
+        }
+        return "\"".concat(str.replace("\"", "\"\"")).concat("\"");
+    }
+
+    private static String quoteJSON(String str) {
+        if (str == null) {
+            return "null";
+        }
+        StringBuilder buf = new StringBuilder(str.length() + 2);
+        buf.append('"');
+        for (int i = 0; i < str.length(); i++) {
+            char c = str.charAt(i);
+            if (c == '"' || c == '\\') {
+                buf.append('\\').append(c);
+            } else if (c < 0x20) {
+                buf.append(String.format(Locale.US, "\\u%04x", (int) c));
+            } else {
+                buf.append(c);
+            }
+        }
+        return buf.append('"').toString();
+    }
+
+}
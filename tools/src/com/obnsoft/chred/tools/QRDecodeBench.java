@@ -0,0 +1,295 @@
+/*
+ * Copyright (C) 2013 OBN-soft
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.obnsoft.chred.tools;
+
+import java.awt.Color;
+import java.awt.Graphics2D;
+import java.awt.RenderingHints;
+import java.awt.image.BufferedImage;
+import java.awt.image.ConvolveOp;
+import java.awt.image.Kernel;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Locale;
+import java.util.Random;
+
+import javax.imageio.ImageIO;
+
+import jp.sourceforge.qrcode.QRCodeDecoder;
+
+import com.obnsoft.chred.PTCFile;
+import com.obnsoft.chred.QRChunkAssembler;
+import com.obnsoft.chred.QRImageBuffer;
+
+public class QRDecodeBench {
+
+    private static final Profile[] PROFILES = {
+        new Profile("clean",      1.0f, 1.0f, 0f, 0, 0),
+        new Profile("small",      .7f,  .8f,  0f, 0, 0),
+        new Profile("large",      1.4f, 1.8f, 0f, 0, 0),
+        new Profile("rotate",     1.0f, 1.0f, 6f, 0, 0),
+        new Profile("blur",       .95f, 1.05f, 0f, 3, 0),
+        new Profile("noise",      1.0f, 1.0f, 0f, 0, 24),
+        new Profile("combined",   .85f, .95f, 3f, 3, 16),
+    };
+
+    private boolean mIsTight;
+    private int mTrials = 5;
+    private long mSeed = 1;
+    private File mDumpDir;
+    private List<File> mFiles = new ArrayList<File>();
+
+    /*-----------------------------------------------------------------------*/
+
+    static class Profile {
+        public String name;
+        public float minScale;
+        public float maxScale;
+        public float rotation;  // maximum degrees
+        public int blur;        // box kernel size
+        public int noise;       // standard deviation of gray level
+        public int attempts;
+        public int successes;
+        public int completed;
+        public long nanos;
+        public Profile(String name, float minScale, float maxScale, float rotation,
+                int blur, int noise) {
+            this.name = name;
+            this.minScale = minScale;
+            this.maxScale = maxScale;
+            this.rotation = rotation;
+            this.blur = blur;
+            this.noise = noise;
+        }
+    }
+
+    /*-----------------------------------------------------------------------*/
+
+    public static void main(String[] args) {
+        QRDecodeBench bench = new QRDecodeBench();
+        if (!bench.parseArgs(args)) {
+            System.err.println("Usage: QRDecodeBench [-tight] [-trials N] [-seed N] " +
+                    "[-dump DIR] FILE.ptc...");
+            System.exit(2);
+        }
+        System.exit(bench.run() ? 0 : 1);
+    }
+
+    /*-----------------------------------------------------------------------*/
+
+    private boolean parseArgs(String[] args) {
+        try {
+            for (int i = 0; i < args.length; i++) {
+                String arg = args[i];
+                if (arg.equals("-tight")) {
+                    mIsTight = true;
+                } else if (arg.equals("-trials")) {
+                    mTrials = Integer.parseInt(args[++i]);
+                } else if (arg.equals("-seed")) {
+                    mSeed = Long.parseLong(args[++i]);
+                } else if (arg.equals("-dump")) {
+                    mDumpDir = new File(args[++i]);
+                } else if (arg.startsWith("-")) {
+                    return false;
+                } else {
+                    mFiles.add(new File(arg));
+                }
+            }
+        } catch (ArrayIndexOutOfBoundsException e) {
+            return false;
+        } catch (NumberFormatException e) {
+            return false;
+        }
+        return !mFiles.isEmpty() && mTrials > 0;
+    }
+
+    private boolean run() {
+        if (mDumpDir != null && !mDumpDir.isDirectory() && !mDumpDir.mkdirs()) {
+            System.err.println("Can't create " + mDumpDir);
+            return false;
+        }
+
+        /*  Encode every file into QR codes in advance  */
+        List<String> names = new ArrayList<String>();
+        List<byte[][]> qrDatasList = new ArrayList<byte[][]>();
+        List<boolean[][][]> qrsList = new ArrayList<boolean[][][]>();
+        for (File file : mFiles) {
+            PTCFile ptcFile = new PTCFile();
+            if (!loadFile(ptcFile, file)) {
+                System.err.println("Can't load " + file);
+                return false;
+            }
+            byte[][] qrDatas = PTCFile.splitQRData(ptcFile.compress(), mIsTight);
+            boolean[][][] qrs = new boolean[qrDatas.length][][];
+            for (int i = 0; i < qrDatas.length; i++) {
+                qrs[i] = PTCFile.encodeQRCode(qrDatas[i], mIsTight);
+            }
+            names.add(file.getName());
+            qrDatasList.add(qrDatas);
+            qrsList.add(qrs);
+        }
+
+        /*  Warm up the decoder once so that JIT doesn't skew the first profile  */
+        QRCodeDecoder decoder = new QRCodeDecoder();
+        QRImageBuffer.decode(decoder,
+                getBuffer(render(qrsList.get(0)[0], PROFILES[0], new Random(mSeed))));
+
+        Random random = new Random(mSeed);
+        QRChunkAssembler assembler = new QRChunkAssembler();
+        for (Profile profile : PROFILES) {
+            for (int f = 0; f < names.size(); f++) {
+                byte[][] qrDatas = qrDatasList.get(f);
+                boolean[][][] qrs = qrsList.get(f);
+                for (int t = 0; t < mTrials; t++) {
+                    assembler.clear();
+                    int result = QRChunkAssembler.RESULT_INVALID;
+                    for (int i = 0; i < qrDatas.length; i++) {
+                        BufferedImage image = render(qrs[i], profile, random);
+                        if (mDumpDir != null && t == 0) {
+                            dumpImage(image, String.format(Locale.US, "%s_%s_%02d.png",
+                                    names.get(f), profile.name, i + 1));
+                        }
+                        QRImageBuffer buffer = getBuffer(image);
+                        long start = System.nanoTime();
+                        byte[] qrData;
+                        try {
+                            qrData = QRImageBuffer.decode(decoder, buffer);
+                        } catch (RuntimeException e) {
+                            qrData = null; // Decoder may fail to find patterns this way
+                        }
+                        profile.nanos += System.nanoTime() - start;
+                        profile.attempts++;
+                        if (qrData != null && Arrays.equals(qrData, qrDatas[i])) {
+                            profile.successes++;
+                            result = assembler.addPart(qrData);
+                        }
+                    }
+                    if (result == QRChunkAssembler.RESULT_COMPLETED) {
+                        profile.completed++;
+                    }
+                }
+            }
+        }
+
+        /*  Report  */
+        int sheets = names.size() * mTrials;
+        System.out.printf(Locale.US, "%-10s %8s %9s %8s %10s%n",
+                "profile", "codes", "success", "sheets", "ms/code");
+        for (Profile profile : PROFILES) {
+            System.out.printf(Locale.US, "%-10s %8d %8.1f%% %4d/%-3d %10.2f%n",
+                    profile.name, profile.attempts,
+                    profile.successes * 100f / profile.attempts,
+                    profile.completed, sheets,
+                    profile.nanos / 1000000.0 / profile.attempts);
+        }
+        return true;
+    }
+
+    private boolean loadFile(PTCFile ptcFile, File file) {
+        InputStream in = null;
+        try {
+            in = new FileInputStream(file);
+            return ptcFile.load(in);
+        } catch (IOException e) {
+            e.printStackTrace();
+            return false;
+        } finally {
+            if (in != null) {
+                try {
+                    in.close();
+                } catch (IOException e) {
+                    e.printStackTrace();
+                }
+            }
+        }
+    }
+
+    private BufferedImage render(boolean[][] qr, Profile profile, Random random) {
+        /*  Draw a cell of the sheet just as generateQRCodes() does, at random scale
+            in the range and random sub-pixel position as a photo would be  */
+        float scale = profile.minScale + (profile.maxScale - profile.minScale) * random.nextFloat();
+        double theta = Math.toRadians(profile.rotation * (random.nextFloat() * 2f - 1f));
+        double extent = PTCFile.QR_STEP * scale *
+                (Math.abs(Math.cos(theta)) + Math.abs(Math.sin(theta)));
+        int size = (int) Math.ceil(extent) + 1;
+        double offsetX = random.nextDouble() - .5;
+        double offsetY = random.nextDouble() - .5;
+        BufferedImage image = new BufferedImage(size, size, BufferedImage.TYPE_INT_RGB);
+        Graphics2D g = image.createGraphics();
+        g.setColor(Color.WHITE);
+        g.fillRect(0, 0, size, size);
+        g.setRenderingHint(RenderingHints.KEY_ANTIALIASING, RenderingHints.VALUE_ANTIALIAS_ON);
+        g.translate(size / 2.0 + offsetX, size / 2.0 + offsetY);
+        g.rotate(theta);
+        g.scale(scale, scale);
+        g.translate(-PTCFile.QR_STEP / 2.0, -PTCFile.QR_STEP / 2.0);
+        g.setColor(Color.BLACK);
+        for (int x = 0; x < qr.length; x++) {
+            for (int y = 0; y < qr[x].length; y++) {
+                if (qr[x][y]) {
+                    g.fillRect(PTCFile.QR_MARGIN + x * 2, PTCFile.QR_MARGIN + y * 2, 2, 2);
+                }
+            }
+        }
+        g.dispose();
+
+        /*  Degrade  */
+        if (profile.blur > 1) {
+            int n = profile.blur;
+            float[] kernel = new float[n * n];
+            Arrays.fill(kernel, 1f / kernel.length);
+            BufferedImage blurred = new BufferedImage(size, size, BufferedImage.TYPE_INT_RGB);
+            new ConvolveOp(new Kernel(n, n, kernel), ConvolveOp.EDGE_NO_OP, null)
+                    .filter(image, blurred);
+            image = blurred;
+        }
+        if (profile.noise > 0) {
+            for (int y = 0; y < size; y++) {
+                for (int x = 0; x < size; x++) {
+                    int v = (image.getRGB(x, y) & 0xFF) +
+                            (int) (random.nextGaussian() * profile.noise);
+                    v = Math.max(0, Math.min(255, v));
+                    image.setRGB(x, y, 0x010101 * v);
+                }
+            }
+        }
+        return image;
+    }
+
+    private QRImageBuffer getBuffer(BufferedImage image) {
+        int w = image.getWidth();
+        int h = image.getHeight();
+        int[] pixels = image.getRGB(0, 0, w, h, null, 0, w);
+        QRImageBuffer buffer = new QRImageBuffer(pixels, w, h);
+        buffer.setTargetArea(0, 0, w, h);
+        return buffer;
+    }
+
+    private void dumpImage(BufferedImage image, String fileName) {
+        try {
+            ImageIO.write(image, "png", new File(mDumpDir, fileName));
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+    }
+
+}
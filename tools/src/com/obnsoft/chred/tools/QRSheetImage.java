@@ -0,0 +1,143 @@
+/*
+ * Copyright (C) 2013 OBN-soft
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.obnsoft.chred.tools;
+
+import java.awt.Color;
+import java.awt.Font;
+import java.awt.FontMetrics;
+import java.awt.Graphics2D;
+import java.awt.RenderingHints;
+import java.awt.image.BufferedImage;
+import java.util.List;
+import java.util.Locale;
+
+import jp.sourceforge.qrcode.QRCodeDecoder;
+
+import com.obnsoft.chred.PTCFile;
+import com.obnsoft.chred.PTCUtils;
+import com.obnsoft.chred.QRChunkAssembler;
+import com.obnsoft.chred.QRImageBuffer;
+import com.obnsoft.chred.QRLocator;
+
+public class QRSheetImage {
+
+    private static final int QR_MARGIN = PTCFile.QR_MARGIN;
+    private static final int QR_PADDING = PTCFile.QR_PADDING;
+    private static final int QR_STEP = PTCFile.QR_STEP;
+
+    /*-----------------------------------------------------------------------*/
+
+    public static BufferedImage render(byte[] cmprsData, boolean isTight, String footer) {
+        /*  Same layout as QRSheetRenderer in the app  */
+        byte[][] qrDatas = PTCFile.splitQRData(cmprsData, isTight);
+        if (qrDatas == null) return null;
+        int qrCount = qrDatas.length;
+        int qw = (int) Math.ceil(Math.sqrt(qrCount));
+        int qh = (qrCount + qw - 1) / qw;
+        int width = qw * QR_STEP + QR_PADDING * 2;
+        int height = qh * QR_STEP + QR_PADDING * 2;
+        BufferedImage image = new BufferedImage(width, height, BufferedImage.TYPE_INT_RGB);
+        Graphics2D g = image.createGraphics();
+        g.setColor(Color.WHITE);
+        g.fillRect(0, 0, width, height);
+        g.setRenderingHint(RenderingHints.KEY_TEXT_ANTIALIASING,
+                RenderingHints.VALUE_TEXT_ANTIALIAS_ON);
+        if (footer != null) {
+            g.setColor(Color.GRAY);
+            g.setFont(g.getFont().deriveFont(Font.PLAIN, 12f));
+            FontMetrics fm = g.getFontMetrics();
+            g.drawString(footer, width - fm.stringWidth(footer), height - fm.getDescent());
+        }
+        g.setColor(Color.BLACK);
+        g.setFont(g.getFont().deriveFont(Font.PLAIN, 24f));
+        String lbl = PTCUtils.extractString(cmprsData, 9, 3)
+                .concat(":").concat(PTCUtils.extractString(cmprsData, 0, 8));
+        g.drawString(lbl, (width - g.getFontMetrics().stringWidth(lbl)) / 2, QR_PADDING);
+        g.setFont(g.getFont().deriveFont(Font.PLAIN, 16f));
+        FontMetrics fm = g.getFontMetrics();
+        int qx = QR_MARGIN + QR_PADDING;
+        int qy = QR_MARGIN + QR_PADDING;
+        for (int i = 0; i < qrCount; i++) {
+            boolean[][] qr = PTCFile.encodeQRCode(qrDatas[i], isTight);
+            lbl = String.format(Locale.US, "%d / %d", i + 1, qrCount);
+            g.drawString(lbl, qx - QR_MARGIN + (QR_STEP - fm.stringWidth(lbl)) / 2,
+                    qy - QR_MARGIN + QR_STEP + 8);
+            for (int x = 0, xMax = qr.length; x < xMax; x++) {
+                for (int y = 0, yMax = qr[x].length; y < yMax; y++) {
+                    if (qr[x][y]) {
+                        g.fillRect(qx + x * 2, qy + y * 2, 2, 2);
+                    }
+                }
+            }
+            qx += QR_STEP;
+            if (qx >= qw * QR_STEP) {
+                qx = QR_MARGIN + QR_PADDING;
+                qy += QR_STEP;
+            }
+        }
+        g.dispose();
+        return image;
+    }
+
+    public static byte[] scan(BufferedImage image) {
+        final int width = image.getWidth();
+        final int height = image.getHeight();
+        final int[] pixels = image.getRGB(0, 0, width, height, null, 0, width);
+        QRChunkAssembler assembler = new QRChunkAssembler();
+        QRLocator.AreaDecoder decoder = new QRLocator.AreaDecoder() {
+            @Override
+            public byte[] decode(QRLocator.Area area) {
+                QRImageBuffer buffer = new QRImageBuffer(pixels, width, height);
+                buffer.setTargetArea(area.x, area.y, area.w, area.h);
+                return QRImageBuffer.decode(new QRCodeDecoder(), buffer);
+            }
+        };
+        if (!scanAreas(pixels, width, height,
+                QRLocator.locateByLayout(width, height, decoder), assembler)) {
+            byte[] gray = new byte[pixels.length];
+            for (int i = 0; i < pixels.length; i++) {
+                int c = pixels[i];
+                gray[i] = (byte) ((c >> 16 & 0xFF) + (c >> 8 & 0xFF) * 2 + (c & 0xFF) >> 2);
+            }
+            assembler.clear();
+            scanAreas(pixels, width, height,
+                    QRLocator.locateByFinderPatterns(gray, width, height), assembler);
+        }
+        return assembler.getData();
+    }
+
+    /*-----------------------------------------------------------------------*/
+
+    private static boolean scanAreas(int[] pixels, int width, int height,
+            List<QRLocator.Area> areas, QRChunkAssembler assembler) {
+        QRCodeDecoder decoder = new QRCodeDecoder();
+        for (QRLocator.Area area : areas) {
+            byte[] qrData = area.qrData;
+            if (qrData == null) {
+                QRImageBuffer buffer = new QRImageBuffer(pixels, width, height);
+                buffer.setTargetArea(area.x, area.y, area.w, area.h);
+                qrData = QRImageBuffer.decode(decoder, buffer);
+            }
+            if (qrData != null &&
+                    assembler.addPart(qrData) == QRChunkAssembler.RESULT_COMPLETED) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+}